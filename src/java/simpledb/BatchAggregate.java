@@ -0,0 +1,248 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BatchAggregate is the batch counterpart of {@link Aggregate}: it computes
+ * one aggregate over a column, optionally grouped by another column. Each
+ * group keeps a count, a long sum, a minimum and a maximum, which are
+ * updated in one loop per input batch; int group values are looked up in an
+ * open-addressing table of primitive ints.
+ * <p>
+ * The output has the group value (if grouping) followed by the aggregate
+ * value, an int; AVG is the sum divided by the count, rounded toward zero
+ * like IntegerAggregator. String columns can only be counted. Without
+ * grouping and without input rows, COUNT and SUM return one row holding 0
+ * and the other aggregates return no rows, as in IntegerAggregator.
+ */
+public class BatchAggregate implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op op;
+    private final TupleDesc td;
+
+    /* per group, indexed by group number */
+    private transient int numGroups;
+    private transient long[] count;
+    private transient long[] sum;
+    private transient int[] min;
+    private transient int[] max;
+    private transient int[] intKeys;
+    private transient String[] stringKeys;
+
+    /* open-addressing table from int group value to group number + 1 */
+    private transient int[] slotKeys;
+    private transient int[] slotGroups;
+    private transient HashMap<String,Integer> stringGroups;
+
+    private transient TupleBatch out;
+    private transient int emitted;
+
+    /**
+     * @param child the iterator to read batches from
+     * @param afield the column over which the aggregate is computed
+     * @param gfield the column to group by, or Aggregator.NO_GROUPING
+     * @param aop the aggregate to compute
+     * @throws IllegalArgumentException if afield is a string column and aop
+     *         is not COUNT
+     */
+    public BatchAggregate(BatchIterator child, int afield, int gfield, Aggregator.Op aop) {
+        TupleDesc childtd = child.getTupleDesc();
+        if (childtd.getFieldType(afield) != Type.INT_TYPE && aop != Aggregator.Op.COUNT)
+            throw new IllegalArgumentException("only COUNT is supported over strings");
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.op = aop;
+        String aggName = aop + " (" + childtd.getFieldName(afield) + ")";
+        if (gfield == Aggregator.NO_GROUPING)
+            td = new TupleDesc(new Type[] { Type.INT_TYPE }, new String[] { aggName });
+        else
+            td = new TupleDesc(new Type[] { childtd.getFieldType(gfield), Type.INT_TYPE },
+                    new String[] { childtd.getFieldName(gfield), aggName });
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        numGroups = 0;
+        count = new long[16];
+        sum = new long[16];
+        min = new int[16];
+        max = new int[16];
+        if (gfield == Aggregator.NO_GROUPING) {
+            newGroup();
+        } else if (td.getFieldType(0) == Type.INT_TYPE) {
+            intKeys = new int[16];
+            slotKeys = new int[64];
+            slotGroups = new int[64];
+        } else {
+            stringKeys = new String[16];
+            stringGroups = new HashMap<String,Integer>();
+        }
+        child.open();
+        TupleBatch b;
+        while ((b = child.nextBatch()) != null)
+            merge(b);
+        // MIN, MAX and AVG of no rows have no value
+        if (gfield == Aggregator.NO_GROUPING && count[0] == 0
+                && op != Aggregator.Op.COUNT && op != Aggregator.Op.SUM)
+            numGroups = 0;
+        out = new TupleBatch(td, TupleBatch.DEFAULT_CAPACITY);
+        emitted = 0;
+    }
+
+    /** Adds an empty group and returns its number. */
+    private int newGroup() {
+        if (numGroups == count.length) {
+            int n = numGroups * 2;
+            count = Arrays.copyOf(count, n);
+            sum = Arrays.copyOf(sum, n);
+            min = Arrays.copyOf(min, n);
+            max = Arrays.copyOf(max, n);
+            if (intKeys != null)
+                intKeys = Arrays.copyOf(intKeys, n);
+            if (stringKeys != null)
+                stringKeys = Arrays.copyOf(stringKeys, n);
+        }
+        min[numGroups] = Integer.MAX_VALUE;
+        max[numGroups] = Integer.MIN_VALUE;
+        return numGroups++;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** @return the group of an int group value, adding it if it is new */
+    private int intGroup(int key) {
+        int mask = slotKeys.length - 1;
+        int i = hash(key) & mask;
+        while (slotGroups[i] != 0) {
+            if (slotKeys[i] == key)
+                return slotGroups[i] - 1;
+            i = (i + 1) & mask;
+        }
+        int g = newGroup();
+        intKeys[g] = key;
+        slotKeys[i] = key;
+        slotGroups[i] = g + 1;
+        if (numGroups * 2 > slotKeys.length)
+            rehash();
+        return g;
+    }
+
+    private void rehash() {
+        int[] keys = new int[slotKeys.length * 2];
+        int[] groups = new int[keys.length];
+        int mask = keys.length - 1;
+        for (int g = 0; g < numGroups; g++) {
+            int i = hash(intKeys[g]) & mask;
+            while (groups[i] != 0)
+                i = (i + 1) & mask;
+            keys[i] = intKeys[g];
+            groups[i] = g + 1;
+        }
+        slotKeys = keys;
+        slotGroups = groups;
+    }
+
+    /** @return the group of a string group value, adding it if it is new */
+    private int stringGroup(String key) {
+        Integer g = stringGroups.get(key);
+        if (g == null) {
+            g = newGroup();
+            stringKeys[g] = key;
+            stringGroups.put(key, g);
+        }
+        return g;
+    }
+
+    private void merge(TupleBatch b) {
+        int[] sel = b.selection();
+        int n = b.numSelected();
+        int[] values = b.ints(afield);
+        for (int k = 0; k < n; k++) {
+            int row = sel[k];
+            int g;
+            if (gfield == Aggregator.NO_GROUPING)
+                g = 0;
+            else if (intKeys != null)
+                g = intGroup(b.ints(gfield)[row]);
+            else
+                g = stringGroup(b.strings(gfield)[row]);
+            count[g]++;
+            if (values != null) {
+                int v = values[row];
+                sum[g] += v;
+                if (v < min[g])
+                    min[g] = v;
+                if (v > max[g])
+                    max[g] = v;
+            }
+        }
+    }
+
+    /** @return the value of the aggregate for a group */
+    private int result(int g) {
+        switch (op) {
+        case MIN:
+            return min[g];
+        case MAX:
+            return max[g];
+        case SUM:
+            return (int)sum[g];
+        case AVG:
+            return count[g] == 0 ? 0 : (int)(sum[g] / count[g]);
+        default:
+            return (int)count[g];
+        }
+    }
+
+    /**
+     * Returns the results of the groups, a batch at a time.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (out == null)
+            throw new IllegalStateException("BatchAggregate not yet open");
+        if (emitted == numGroups)
+            return null;
+        out.clear();
+        int n = Math.min(out.capacity(), numGroups - emitted);
+        int agg = gfield == Aggregator.NO_GROUPING ? 0 : 1;
+        int[] results = out.ints(agg);
+        for (int r = 0; r < n; r++) {
+            int g = emitted + r;
+            if (agg == 1) {
+                if (intKeys != null)
+                    out.ints(0)[r] = intKeys[g];
+                else
+                    out.strings(0)[r] = stringKeys[g];
+            }
+            results[r] = result(g);
+        }
+        emitted += n;
+        out.setSizeAndSelectAll(n);
+        return out;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        emitted = 0;
+    }
+
+    public void close() {
+        child.close();
+        out = null;
+        count = sum = null;
+        min = max = intKeys = slotKeys = slotGroups = null;
+        stringKeys = null;
+        stringGroups = null;
+    }
+}
@@ -0,0 +1,138 @@
+package simpledb;
+
+/**
+ * BatchFilter is the batch counterpart of {@link Filter}. It compares a
+ * whole column with the predicate's operand in one loop and narrows the
+ * batch's selection vector to the rows that pass; no values are copied.
+ */
+public class BatchFilter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate pred;
+    private final BatchIterator child;
+
+    /**
+     * @param p the predicate to filter rows with
+     * @param child the iterator to read batches from
+     */
+    public BatchFilter(Predicate p, BatchIterator child) {
+        this.pred = p;
+        this.child = child;
+    }
+
+    public Predicate getPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    /**
+     * Returns the next batch of the child with at least one row that passes
+     * the predicate, with only those rows selected.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch b;
+        while ((b = child.nextBatch()) != null) {
+            int[] ints = b.ints(pred.getField());
+            if (ints != null)
+                b.setNumSelected(select(ints, b.selection(), b.numSelected(),
+                        pred.getOp(), ((IntField)pred.getOperand()).getValue()));
+            else
+                b.setNumSelected(select(b.strings(pred.getField()), b.selection(),
+                        b.numSelected(), pred.getOp(),
+                        ((StringField)pred.getOperand()).getValue()));
+            if (b.numSelected() > 0)
+                return b;
+        }
+        return null;
+    }
+
+    /**
+     * Keeps the selected rows whose value satisfies "value op operand" at
+     * the front of sel.
+     *
+     * @return the number of rows kept
+     */
+    static int select(int[] col, int[] sel, int n, Predicate.Op op, int operand) {
+        int out = 0;
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            for (int k = 0; k < n; k++)
+                if (col[sel[k]] == operand)
+                    sel[out++] = sel[k];
+            break;
+        case NOT_EQUALS:
+            for (int k = 0; k < n; k++)
+                if (col[sel[k]] != operand)
+                    sel[out++] = sel[k];
+            break;
+        case GREATER_THAN:
+            for (int k = 0; k < n; k++)
+                if (col[sel[k]] > operand)
+                    sel[out++] = sel[k];
+            break;
+        case GREATER_THAN_OR_EQ:
+            for (int k = 0; k < n; k++)
+                if (col[sel[k]] >= operand)
+                    sel[out++] = sel[k];
+            break;
+        case LESS_THAN:
+            for (int k = 0; k < n; k++)
+                if (col[sel[k]] < operand)
+                    sel[out++] = sel[k];
+            break;
+        case LESS_THAN_OR_EQ:
+            for (int k = 0; k < n; k++)
+                if (col[sel[k]] <= operand)
+                    sel[out++] = sel[k];
+            break;
+        }
+        return out;
+    }
+
+    /**
+     * Keeps the selected rows whose value satisfies "value op operand" at
+     * the front of sel, with the semantics of StringField.compare.
+     *
+     * @return the number of rows kept
+     */
+    static int select(String[] col, int[] sel, int n, Predicate.Op op, String operand) {
+        int out = 0;
+        for (int k = 0; k < n; k++) {
+            String v = col[sel[k]];
+            boolean pass;
+            if (op == Predicate.Op.LIKE) {
+                pass = v.indexOf(operand) >= 0;
+            } else {
+                int cmp = v.compareTo(operand);
+                switch (op) {
+                case EQUALS: pass = cmp == 0; break;
+                case NOT_EQUALS: pass = cmp != 0; break;
+                case GREATER_THAN: pass = cmp > 0; break;
+                case GREATER_THAN_OR_EQ: pass = cmp >= 0; break;
+                case LESS_THAN: pass = cmp < 0; break;
+                default: pass = cmp <= 0; break;
+                }
+            }
+            if (pass)
+                sel[out++] = sel[k];
+        }
+        return out;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
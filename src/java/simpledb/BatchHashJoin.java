@@ -0,0 +1,208 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * BatchHashJoin is a batch equi-join. When opened it reads every batch of
+ * the right (inner) child into growable columns and chains the rows in a
+ * hash table on the join column; each left batch is then probed row by row
+ * and the matches are written, left columns first, into the output batch.
+ * The right child must fit in memory.
+ */
+public class BatchHashJoin implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private final BatchIterator left;
+    private final BatchIterator right;
+    private final TupleDesc td;
+
+    /* the rows of the right child, column by column */
+    private transient int[][] buildInts;
+    private transient String[][] buildStrings;
+    private transient int buildSize;
+    /* bucket -> first row + 1, and row -> next row in the bucket + 1 */
+    private transient int[] heads;
+    private transient int[] nextRow;
+
+    private transient TupleBatch out;
+    /* probe position: the current left batch, the next selected row in it,
+       and the next build row to compare with that row (+ 1) */
+    private transient TupleBatch probe;
+    private transient int probeIndex;
+    private transient int chain;
+
+    /**
+     * @param p the predicate to join on; its operator must be EQUALS
+     * @param left the outer child
+     * @param right the inner child, which is loaded into the hash table
+     * @throws IllegalArgumentException if the predicate is not an equality
+     */
+    public BatchHashJoin(JoinPredicate p, BatchIterator left, BatchIterator right) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("hash join needs an equality predicate");
+        this.pred = p;
+        this.left = left;
+        this.right = right;
+        this.td = TupleDesc.merge(left.getTupleDesc(), right.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        right.open();
+        build();
+        left.open();
+        out = new TupleBatch(td, TupleBatch.DEFAULT_CAPACITY);
+        probe = null;
+    }
+
+    private static int hash(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int hashBuildRow(int row) {
+        int[] ints = buildInts[pred.getField2()];
+        return hash(ints != null ? ints[row] : buildStrings[pred.getField2()][row].hashCode());
+    }
+
+    private void build() throws DbException, TransactionAbortedException {
+        TupleDesc rtd = right.getTupleDesc();
+        int n = rtd.numFields();
+        int capacity = TupleBatch.DEFAULT_CAPACITY;
+        buildInts = new int[n][];
+        buildStrings = new String[n][];
+        for (int j = 0; j < n; j++) {
+            if (rtd.getFieldType(j) == Type.INT_TYPE)
+                buildInts[j] = new int[capacity];
+            else
+                buildStrings[j] = new String[capacity];
+        }
+        buildSize = 0;
+        TupleBatch b;
+        while ((b = right.nextBatch()) != null) {
+            int[] sel = b.selection();
+            int count = b.numSelected();
+            if (buildSize + count > capacity) {
+                while (buildSize + count > capacity)
+                    capacity *= 2;
+                for (int j = 0; j < n; j++) {
+                    if (buildInts[j] != null)
+                        buildInts[j] = Arrays.copyOf(buildInts[j], capacity);
+                    else
+                        buildStrings[j] = Arrays.copyOf(buildStrings[j], capacity);
+                }
+            }
+            for (int j = 0; j < n; j++) {
+                int[] ints = b.ints(j);
+                if (ints != null) {
+                    int[] dst = buildInts[j];
+                    for (int k = 0; k < count; k++)
+                        dst[buildSize + k] = ints[sel[k]];
+                } else {
+                    String[] strings = b.strings(j);
+                    String[] dst = buildStrings[j];
+                    for (int k = 0; k < count; k++)
+                        dst[buildSize + k] = strings[sel[k]];
+                }
+            }
+            buildSize += count;
+        }
+        right.close();
+
+        int buckets = 16;
+        while (buckets < buildSize * 2)
+            buckets *= 2;
+        heads = new int[buckets];
+        nextRow = new int[buildSize];
+        for (int row = buildSize - 1; row >= 0; row--) {
+            int bucket = hashBuildRow(row) & (buckets - 1);
+            nextRow[row] = heads[bucket];
+            heads[bucket] = row + 1;
+        }
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (out == null)
+            throw new IllegalStateException("BatchHashJoin not yet open");
+        out.clear();
+        int f1 = pred.getField1();
+        int f2 = pred.getField2();
+        int mask = heads.length - 1;
+        int size = 0;
+        int capacity = out.capacity();
+        while (size < capacity) {
+            if (probe == null || probeIndex == probe.numSelected()) {
+                probe = left.nextBatch();
+                if (probe == null)
+                    break;
+                probeIndex = 0;
+                chain = -1;
+            }
+            int row = probe.selection()[probeIndex];
+            int[] leftInts = probe.ints(f1);
+            if (chain < 0) {
+                int h = leftInts != null ? leftInts[row] : probe.strings(f1)[row].hashCode();
+                chain = heads[hash(h) & mask];
+            }
+            while (chain != 0 && size < capacity) {
+                int b = chain - 1;
+                chain = nextRow[b];
+                boolean match = leftInts != null
+                        ? leftInts[row] == buildInts[f2][b]
+                        : probe.strings(f1)[row].equals(buildStrings[f2][b]);
+                if (match)
+                    emit(row, b, size++);
+            }
+            if (chain == 0) {
+                probeIndex++;
+                chain = -1;
+            }
+        }
+        if (size == 0)
+            return null;
+        out.setSizeAndSelectAll(size);
+        return out;
+    }
+
+    /** Writes the join of a left row and a build row to an output row. */
+    private void emit(int leftRow, int buildRow, int outRow) {
+        int n1 = probe.getTupleDesc().numFields();
+        for (int j = 0; j < n1; j++) {
+            int[] ints = probe.ints(j);
+            if (ints != null)
+                out.ints(j)[outRow] = ints[leftRow];
+            else
+                out.strings(j)[outRow] = probe.strings(j)[leftRow];
+        }
+        for (int j = 0; j < buildInts.length; j++) {
+            if (buildInts[j] != null)
+                out.ints(n1 + j)[outRow] = buildInts[j][buildRow];
+            else
+                out.strings(n1 + j)[outRow] = buildStrings[j][buildRow];
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        left.rewind();
+        probe = null;
+    }
+
+    public void close() {
+        left.close();
+        out = null;
+        probe = null;
+        buildInts = null;
+        buildStrings = null;
+        heads = null;
+        nextRow = null;
+    }
+}
@@ -0,0 +1,46 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * BatchIterator is the batch-at-a-time counterpart of {@link DbIterator}:
+ * each call to nextBatch returns many rows, stored column by column in a
+ * {@link TupleBatch}, so an operator runs one tight loop over a column
+ * instead of several virtual calls per tuple.
+ * <p>
+ * {@link TupleToBatch} turns a DbIterator into a BatchIterator and
+ * {@link BatchToTuple} turns a BatchIterator back into a DbIterator, so batch
+ * operators can be mixed with tuple-at-a-time ones.
+ */
+public interface BatchIterator extends Serializable {
+
+    /**
+     * Opens the iterator. This must be called before nextBatch.
+     */
+    public void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch of rows. A batch may have no selected rows.
+     * The batch is only valid until the next call to nextBatch, rewind or
+     * close.
+     *
+     * @return the next batch, or null if there are no more rows
+     * @throws IllegalStateException if the iterator has not been opened
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     */
+    public void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the TupleDesc of the rows of the returned batches.
+     */
+    public TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    public void close();
+}
@@ -0,0 +1,63 @@
+package simpledb;
+
+import java.util.List;
+
+/**
+ * BatchProject is the batch counterpart of {@link Project}. Each output
+ * batch is a view of the child's batch that shows the projected columns;
+ * no values are copied.
+ */
+public class BatchProject implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+    private final int[] columns;
+    private final TupleDesc td;
+    private transient TupleBatch view;
+
+    /**
+     * @param fieldList the ids of the fields of the child's TupleDesc to
+     *        project out, in output order
+     * @param child the iterator to read batches from
+     */
+    public BatchProject(List<Integer> fieldList, BatchIterator child) {
+        this.child = child;
+        this.columns = new int[fieldList.size()];
+        TupleDesc childtd = child.getTupleDesc();
+        Type[] types = new Type[columns.length];
+        String[] names = new String[columns.length];
+        for (int k = 0; k < columns.length; k++) {
+            columns[k] = fieldList.get(k);
+            types[k] = childtd.getFieldType(columns[k]);
+            names[k] = childtd.getFieldName(columns[k]);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        view = new TupleBatch(td);
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch b = child.nextBatch();
+        if (b == null)
+            return null;
+        view.viewOf(b, columns);
+        return view;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+        view = null;
+    }
+}
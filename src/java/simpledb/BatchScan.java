@@ -0,0 +1,125 @@
+package simpledb;
+
+import java.util.Iterator;
+
+/**
+ * BatchScan is the batch counterpart of {@link SeqScan}: it reads each page
+ * of a table through the buffer pool and decodes its tuples straight into
+ * the columns of a {@link TupleBatch}. Tables of other page formats are read
+ * tuple by tuple into the batch.
+ */
+public class BatchScan implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final DbFile file;
+    private final TupleDesc td;
+
+    private transient TupleBatch batch;
+    /* the iterator of a file that is not a HeapFile */
+    private transient DbFileIterator other;
+    private transient ReadAhead.Stream readAhead;
+    private transient boolean largeScan;
+    private transient int numPages;
+    private transient int pgNo;
+    /* the page being read, or null between pages */
+    private transient TuplePage page;
+    private transient int slot;
+    /* the tuples of a page that is not a HeapPage */
+    private transient Iterator<Tuple> pageTuples;
+
+    /**
+     * Creates a batch scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid the transaction this scan is running as a part of
+     * @param tableid the table to scan
+     * @param tableAlias the alias of this table; the returned tupleDesc has
+     *        fields named tableAlias fieldName, as in SeqScan
+     */
+    public BatchScan(TransactionId tid, int tableid, String tableAlias) {
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.file = Database.getCatalog().getDbFile(tableid);
+        TupleDesc fileTd = file.getTupleDesc();
+        Type[] types = new Type[fileTd.numFields()];
+        String[] names = new String[types.length];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = fileTd.getFieldType(i);
+            names[i] = tableAlias + " " + fileTd.getFieldName(i);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        batch = new TupleBatch(td, TupleBatch.DEFAULT_CAPACITY);
+        if (file instanceof HeapFile) {
+            numPages = ((HeapFile)file).numPages();
+            largeScan = Database.getBufferPool().isLargeScan(numPages, file.bytesPerPage());
+            readAhead = new ReadAhead.Stream((HeapFile)file);
+            pgNo = 0;
+            page = null;
+        } else {
+            other = file.iterator(tid);
+            other.open();
+        }
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null)
+            throw new IllegalStateException("BatchScan not yet open");
+        batch.clear();
+        if (other != null) {
+            while (!batch.isFull() && other.hasNext())
+                batch.append(other.next());
+        } else {
+            while (!batch.isFull() && (page != null || pgNo < numPages)) {
+                if (page == null) {
+                    readAhead.pageRequested(pgNo);
+                    page = (TuplePage)Database.getBufferPool().getPage(tid,
+                            new HeapPageId(tableid, pgNo), Permissions.READ_ONLY, largeScan);
+                    slot = 0;
+                    pageTuples = page instanceof HeapPage ? null : page.iterator();
+                }
+                boolean done;
+                if (pageTuples == null) {
+                    HeapPage hp = (HeapPage)page;
+                    slot = hp.fillBatch(slot, batch);
+                    done = slot >= hp.numSlots;
+                } else {
+                    while (!batch.isFull() && pageTuples.hasNext())
+                        batch.append(pageTuples.next());
+                    done = !pageTuples.hasNext();
+                }
+                if (done) {
+                    page = null;
+                    pageTuples = null;
+                    pgNo++;
+                }
+            }
+        }
+        return batch.size() == 0 ? null : batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        if (other != null)
+            other.close();
+        other = null;
+        page = null;
+        pageTuples = null;
+        batch = null;
+    }
+}
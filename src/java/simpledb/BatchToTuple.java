@@ -0,0 +1,71 @@
+package simpledb;
+
+/**
+ * BatchToTuple returns the selected rows of the batches of a
+ * {@link BatchIterator} one tuple at a time, so a batch plan can feed
+ * tuple-at-a-time operators. When tuple reuse is enabled (see
+ * {@link Tuple#isReuseEnabled}) it overwrites one tuple for every row.
+ *
+ * @see TupleToBatch
+ */
+public class BatchToTuple extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+    private transient TupleBatch batch;
+    private transient int index;
+    private transient Tuple reused;
+
+    public BatchToTuple(BatchIterator child) {
+        this.child = child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = null;
+        reused = Tuple.isReuseEnabled() ? new Tuple(getTupleDesc()) : null;
+        super.open();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || index == batch.numSelected()) {
+            batch = child.nextBatch();
+            if (batch == null)
+                return null;
+            index = 0;
+        }
+        int row = batch.selection()[index++];
+        Tuple t = reused != null ? reused : new Tuple(getTupleDesc());
+        batch.copyRow(row, t, reused != null);
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    /**
+     * @return no children: the child of this operator is a BatchIterator,
+     *         not a DbIterator
+     */
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[0];
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+    }
+}
@@ -0,0 +1,170 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BlockNestedLoopJoin joins two children on any predicate. It reads a block
+ * of child1 tuples into memory and then scans child2 once for the whole
+ * block, so child2 is read once per block instead of once per child1 tuple
+ * as in {@link Join}.
+ * <p>
+ * The default block holds as many child1 tuples as fit in the join memory
+ * budget shared with the hash joins (see {@link GraceHashJoin#budgetTuples}),
+ * since the block lives on the Java heap.
+ */
+public class BlockNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate pred;
+    private DbIterator child1;
+    private DbIterator child2;
+    private final int blockSize;
+    private TupleDesc td;
+
+    private transient ArrayList<Tuple> block;
+    private transient boolean child1Done;
+    private transient boolean firstBlock;
+    /* the child2 tuple being joined with the block, and the next block
+       tuple to compare it with */
+    private transient Tuple inner;
+    private transient int blockIndex;
+    private transient boolean copy;
+    private transient Tuple reused;
+
+    /**
+     * Creates a join whose block size is computed from the join memory
+     * budget when it is opened.
+     *
+     * @param p the predicate to join on
+     * @param child1 the outer child, read a block at a time
+     * @param child2 the inner child, scanned once per block
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, 0);
+    }
+
+    /**
+     * @param p the predicate to join on
+     * @param child1 the outer child, read a block at a time
+     * @param child2 the inner child, scanned once per block
+     * @param blockSize the number of child1 tuples per block, or 0 to size
+     *        the block from the join memory budget
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            int blockSize) {
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.blockSize = blockSize;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        if (td == null)
+            td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        child1.open();
+        child2.open();
+        int size = blockSize > 0 ? blockSize : GraceHashJoin.budgetTuples(child1.getTupleDesc());
+        block = new ArrayList<Tuple>(Math.min(size, 1 << 16));
+        copy = Tuple.isReuseEnabled();
+        reused = copy ? new Tuple(getTupleDesc()) : null;
+        reset();
+    }
+
+    private void reset() {
+        block.clear();
+        child1Done = false;
+        firstBlock = true;
+        inner = null;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        block = null;
+        inner = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        reset();
+    }
+
+    /**
+     * Reads the next block of child1 tuples.
+     *
+     * @return false if child1 has no more tuples
+     */
+    private boolean nextBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        int size = blockSize > 0 ? blockSize : GraceHashJoin.budgetTuples(child1.getTupleDesc());
+        while (block.size() < size && child1.hasNext()) {
+            Tuple t = child1.next();
+            // the block outlives the next call to child1.next()
+            block.add(copy ? t.copy() : t);
+        }
+        if (block.isEmpty()) {
+            child1Done = true;
+            return false;
+        }
+        if (!firstBlock)
+            child2.rewind();
+        firstBlock = false;
+        inner = null;
+        return true;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (!child1Done) {
+            if (inner != null) {
+                while (blockIndex < block.size()) {
+                    Tuple outer = block.get(blockIndex++);
+                    if (pred.filter(outer, inner))
+                        return joinTuples(outer, inner);
+                }
+            }
+            if (!block.isEmpty() && child2.hasNext()) {
+                inner = child2.next();
+                blockIndex = 0;
+            } else if (!nextBlock()) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private Tuple joinTuples(Tuple left, Tuple right) {
+        int n1 = left.getTupleDesc().numFields();
+        int n2 = right.getTupleDesc().numFields();
+        Tuple t = reused != null ? reused : new Tuple(getTupleDesc());
+        for (int i = 0; i < n1; i++)
+            t.setField(i, left.getField(i));
+        for (int i = 0; i < n2; i++)
+            t.setField(n1 + i, right.getField(i));
+        return t;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+        td = null;
+    }
+}
@@ -1,7 +1,9 @@
 package simpledb;
 
 import java.io.*;
-import java.util.HashMap;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -11,37 +13,119 @@ import java.util.HashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Tables may use different page sizes (see {@link DbFile#bytesPerPage}). The
+ * pool's capacity is N frames of {@link #PAGE_SIZE} bytes, charged in units
+ * of {@link #FRAME_UNIT} bytes: a page takes as many units as it needs to
+ * hold its bytes, so a pool of N pages holds N default-sized pages, fewer
+ * larger ones or more smaller ones.
+ * <p>
+ * A transaction's dirty pages are written when it commits (FORCE) and
+ * dropped when it aborts, and pages of running transactions are never
+ * written (NO STEAL), so eviction only ever drops clean pages. All flushes
+ * write each file's pages in page-number order and coalesce adjacent pages
+ * into one write.
+ * <p>
+ * The pool counts its hits, misses, evictions and I/O times in a
+ * {@link BufferPoolMetrics} (see {@link #getMetrics}).
  */
 public class BufferPool {
     /** Bytes per page, including header. */
     public static final int PAGE_SIZE = 4096;
     public static final int pagesize =PAGE_SIZE;
 
+    /** Bytes per unit of capacity charged to a resident page. */
+    public static final int FRAME_UNIT = 512;
+    private static final int UNITS_PER_FRAME = PAGE_SIZE / FRAME_UNIT;
+
     /** Default number of pages passed to the constructor. This is used by
     other classes. BufferPool should use the numPages argument to the
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /**
+     * A scan over a table with more than 1/LARGE_SCAN_FRACTION as many pages
+     * as the pool holds is a large scan, whose pages are loaded cold.
+     */
+    public static final int LARGE_SCAN_FRACTION = 4;
+
+    /** Number of lock stripes of the page table. */
+    static final int PAGE_TABLE_STRIPES = 64;
+
+    /**
+     * A slot of the page table. Its monitor is the frame latch: the thread
+     * that reads the page in holds it until {@link #page} is set, so any
+     * other thread asking for the same page waits on the latch instead of
+     * reading the page a second time.
+     */
+    private static class Frame {
+        volatile Page page;
+        /* units of FRAME_UNIT bytes charged for this page */
+        final int units;
+
+        Frame(int units) {
+            this.units = units;
+        }
+    }
+
     /* Structure to represent bufferpool which has pages */
     /* PageId and page are interfaces defined in PageId and Page.java */
-    private HashMap<PageId,Page> bpage ;
-    private int maxpage;
+    /* The map is striped, so lookups never block and inserts/removals only
+       contend with pages hashed to the same stripe. */
+    private final ConcurrentHashMap<PageId,Frame> bpage;
+    private final AtomicInteger numResident;
+    /* units of FRAME_UNIT bytes taken by the resident pages */
+    private final AtomicInteger usedUnits;
+    private final int maxpage;
+    private final int capacityUnits;
 
-    /*HashTable to keep record of Least Recently Used Page */
-    /*Recently added page will have priority of value 0*/
-    /*Least Recently Used Page will have highest priority value and it will be evicted*/
-    private HashMap<PageId, Integer> recent;
+    /* Decides which page is evicted when the pool is full */
+    private final ReplacementPolicy policy;
 
+    /* Page-level shared/exclusive locks for strict two-phase locking */
+    private final LockManager lockManager;
+
+    private final BufferPoolMetrics metrics;
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, using the
+     * CLOCK replacement policy.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
-        bpage=  new HashMap<PageId,Page>();
-        recent = new HashMap<PageId, Integer>();
+        this(numPages, new ClockPolicy(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts
+     * pages in the order chosen by the specified replacement policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the replacement policy; it must not be shared with
+     *        another BufferPool.
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
+        bpage = new ConcurrentHashMap<PageId,Frame>(numPages, 0.75f, PAGE_TABLE_STRIPES);
+        numResident = new AtomicInteger(0);
+        usedUnits = new AtomicInteger(0);
         maxpage = numPages;
+        capacityUnits = numPages * UNITS_PER_FRAME;
+        this.policy = policy;
+        lockManager = new LockManager();
+        metrics = new BufferPoolMetrics(this);
+    }
+
+    /** @return the counters of this pool's hits, misses, evictions and I/O */
+    public BufferPoolMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Unregisters the pool's metrics from JMX. Dirty pages stay in the pool.
+     */
+    public void shutdown() {
+        metrics.unregisterMBean();
     }
 
     /*
@@ -62,42 +146,211 @@ public class BufferPool {
 
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
-            // Method to get value from key in HashMap
-            if(bpage.containsKey(pid)){
-                updatePriority();
-                recent.put(pid,0);
-                return bpage.get(pid);
+        return getPage(tid, pid, perm, false);
+    }
 
+    /**
+     * Retrieve the specified page on behalf of a sequential scan. If scan is
+     * true the request does not count as a use of the page for the
+     * replacement policy, and a page that has to be read in is placed at the
+     * cold end of the replacement order, so a scan over a large table does
+     * not push the working set of other queries out of the pool.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param scan true if the page is read by a large scan
+     * @see #isLargeScan
+     */
+    public  Page getPage(TransactionId tid, PageId pid, Permissions perm, boolean scan)
+        throws TransactionAbortedException, DbException {
+        if (tid != null)
+            lockManager.acquire(tid, pid, perm);
+        while (true) {
+            Frame frame = bpage.get(pid);
+            if (frame != null) {
+                Page cached = frame.page;
+                if (cached == null) {
+                    // another thread is reading the page in; wait on its latch
+                    synchronized (frame) {
+                        cached = frame.page;
+                    }
+                }
+                if (cached != null) {
+                    if (tid != null)
+                        metrics.hit(pid.getTableId());
+                    if (!scan)
+                        policy.pageAccessed(pid);
+                    return cached;
+                }
+                // the load failed and the frame is gone; try again
+                continue;
             }
-            else if(bpage.size()>=maxpage){
-                evictPage();
-            }
+
             DbFile file = Database.getCatalog().getDbFile(pid.getTableId());  // these methods are defined in Catalog.java
-            Page p = file.readPage(pid); // Method specified in DbFile.java to read the page
-            bpage.put(pid,p);   // Adding page in the Bufferpool , pid and p are parameters specified in HashMap
-            updatePriority();
-            recent.put(pid, 0);
-            return p;
-            // create a new page and add
+            Frame fresh = new Frame(frameUnits(file.bytesPerPage()));
+            reserveFrame(fresh.units);
+            synchronized (fresh) {
+                if (bpage.putIfAbsent(pid, fresh) != null) {
+                    // lost the race to load this page
+                    releaseFrame(fresh);
+                    continue;
+                }
+                if (tid != null)
+                    metrics.miss(pid.getTableId());
+                long start = System.nanoTime();
+                try {
+                    fresh.page = file.readPage(pid); // Method specified in DbFile.java to read the page
+                } finally {
+                    metrics.readLatency.recordSince(start);
+                    if (fresh.page == null) {
+                        bpage.remove(pid, fresh);
+                        releaseFrame(fresh);
+                    }
+                }
+                if (fresh.page == null)
+                    throw new DbException("could not read page " + pid.pageNumber()
+                            + " of table " + pid.getTableId());
+                if (scan)
+                    policy.pageLoadedCold(pid);
+                else
+                    policy.pageLoaded(pid);
+                return fresh.page;
+            }
+        }
+    }
+
+    /**
+     * @return the number of units of FRAME_UNIT bytes a page of the
+     *         specified size takes in the pool
+     */
+    public static int frameUnits(int pageSize) {
+        return Math.max(1, (pageSize + FRAME_UNIT - 1) / FRAME_UNIT);
+    }
 
+    /**
+     * Claims free units for a page that is about to be read in, evicting
+     * pages until enough are available. If no page can be evicted because
+     * pages are still being read in by other threads, waits for those reads
+     * to finish and tries again.
+     */
+    private void reserveFrame(int units) throws DbException {
+        if (units > capacityUnits)
+            throw new DbException("a page of " + units * FRAME_UNIT + " bytes does not fit"
+                    + " in a buffer pool of " + maxpage + " pages");
+        while (true) {
+            int used = usedUnits.get();
+            if (used + units <= capacityUnits) {
+                if (usedUnits.compareAndSet(used, used + units)) {
+                    numResident.incrementAndGet();
+                    return;
+                }
+            } else if (!evictPage()) {
+                Frame loading = loadingFrame();
+                if (loading == null)
+                    throw new DbException("no page in the buffer pool can be evicted;"
+                            + " all pages are in use by running transactions");
+                // the reading thread holds the latch until the page is loaded
+                synchronized (loading) {
+                }
+            }
+        }
+    }
 
-        // some code goes here
+    /** @return a frame whose page is being read in, or null if there is none */
+    private Frame loadingFrame() {
+        for (Frame frame : bpage.values())
+            if (frame.page == null)
+                return frame;
+        return null;
+    }
 
+    /** Gives back the units claimed for a page that is not resident. */
+    private void releaseFrame(Frame frame) {
+        usedUnits.addAndGet(-frame.units);
+        numResident.decrementAndGet();
     }
 
-    /* Method to update the priority of all pages
-     * Page with highest priority is least recently used
+    /**
+     * Returns the page with the specified id if it is resident, without
+     * reading it in or touching the replacement policy.
      */
-    public void updatePriority(){
-        if(recent.size() == 0)
-          return;
-        if(recent.size() > 0){
-            for (PageId iter : recent.keySet()){
-                int priority = recent.get(iter);
-                priority++;
-                recent.put(iter,priority);
-            }
-         }
+    private Page residentPage(PageId pid) {
+        Frame frame = bpage.get(pid);
+        return frame == null ? null : frame.page;
+    }
+
+    /** @return the number of pages currently held in the buffer pool */
+    public int numResidentPages() {
+        return numResident.get();
+    }
+
+    /**
+     * @return the number of PAGE_SIZE frames taken by resident pages,
+     *         rounded up
+     */
+    public int numUsedFrames() {
+        return (usedUnits.get() + UNITS_PER_FRAME - 1) / UNITS_PER_FRAME;
+    }
+
+    /** @return the maximum number of pages of PAGE_SIZE bytes this buffer pool holds */
+    public int getNumPages() {
+        return maxpage;
+    }
+
+    /**
+     * Decides whether a scan over a table of the specified size should
+     * bypass the normal replacement order.
+     *
+     * @param numPages the number of pages of the scanned table
+     * @return true if the table is more than a quarter of the pool's size
+     */
+    public boolean isLargeScan(int numPages) {
+        return isLargeScan(numPages, PAGE_SIZE);
+    }
+
+    /**
+     * Decides whether a scan over a table with pages of the specified size
+     * should bypass the normal replacement order.
+     *
+     * @param numPages the number of pages of the scanned table
+     * @param pageSize the number of bytes per page of the table
+     */
+    public boolean isLargeScan(int numPages, int pageSize) {
+        return (long)numPages * frameUnits(pageSize) > capacityUnits / LARGE_SCAN_FRACTION;
+    }
+
+    /** @return true if the specified page is currently in the buffer pool */
+    public boolean isResident(PageId pid) {
+        return residentPage(pid) != null;
+    }
+
+    /**
+     * Reads the specified page into the buffer pool ahead of its use, if it
+     * is not there already. No lock is taken: the page is read as it is on
+     * disk, which under NO STEAL is what any transaction would read, and the
+     * transaction that later asks for it still locks it in getPage.
+     *
+     * @param pid the page to read
+     * @param scan true if the page is read ahead of a large scan
+     * @return false if the page could not be read or no page could be
+     *         evicted to make room for it
+     * @see ReadAhead
+     */
+    public boolean prefetchPage(PageId pid, boolean scan) {
+        if (bpage.containsKey(pid))
+            return true;
+        try {
+            getPage(null, pid, Permissions.READ_ONLY, scan);
+            return true;
+        } catch (DbException e) {
+            return false;
+        } catch (TransactionAbortedException e) {
+            return false;
+        } catch (RuntimeException e) {
+            // the table may have been dropped while the read was queued
+            return false;
+        }
     }
 
     /**
@@ -110,8 +363,7 @@ public class BufferPool {
      * @param pid the ID of the page to unlock
      */
     public  void releasePage(TransactionId tid, PageId pid) {
-        // some code goes here
-        // not necessary for proj1
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -120,15 +372,12 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the unlock
      */
     public void transactionComplete(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for proj1
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
-        // some code goes here
-        // not necessary for proj1
-        return false;
+        return lockManager.holdsLock(tid, p);
     }
 
     /**
@@ -140,8 +389,22 @@ public class BufferPool {
      */
     public void transactionComplete(TransactionId tid, boolean commit)
         throws IOException {
-        // some code goes here
-        // not necessary for proj1
+        try {
+            if (commit) {
+                flushPages(tid);
+            } else {
+                // NO STEAL: nothing tid dirtied has reached the disk, so
+                // dropping the cached copies is enough to roll it back
+                for (Map.Entry<PageId,Frame> e : bpage.entrySet()) {
+                    Page p = e.getValue().page;
+                    TransactionId dirtier = p == null ? null : p.isDirty();
+                    if (dirtier != null && dirtier.equals(tid))
+                        discardPage(e.getKey());
+                }
+            }
+        } finally {
+            lockManager.releaseAll(tid);
+        }
     }
 
     /**
@@ -163,8 +426,8 @@ public class BufferPool {
         // some code goes here
         // not necessary for proj1
         DbFile dbfile = Database.getCatalog().getDbFile(tableId);
-        Page p = dbfile.insertTuple(tid, t).get(0);
-        p.markDirty(true, tid);
+        for (Page p : dbfile.insertTuple(tid, t))
+            p.markDirty(true, tid);
     }
 
     /**
@@ -189,6 +452,38 @@ public class BufferPool {
         p.markDirty(true, tid);
     }
 
+    /**
+     * Writes pages to their files, sorted by table and page number with
+     * adjacent pages coalesced, and marks them clean.
+     */
+    private void writePages(List<Page> pages) throws IOException {
+        TreeMap<Integer,List<Page>> byTable = new TreeMap<Integer,List<Page>>();
+        for (Page p : pages) {
+            List<Page> l = byTable.get(p.getId().getTableId());
+            if (l == null) {
+                l = new ArrayList<Page>();
+                byTable.put(p.getId().getTableId(), l);
+            }
+            l.add(p);
+        }
+        for (Map.Entry<Integer,List<Page>> e : byTable.entrySet()) {
+            DbFile file = Database.getCatalog().getDbFile(e.getKey());
+            if (file instanceof HeapFile) {
+                long start = System.nanoTime();
+                ((HeapFile)file).writePages(e.getValue());
+                metrics.writeLatency.recordSince(start);
+            } else {
+                for (Page p : e.getValue()) {
+                    long start = System.nanoTime();
+                    file.writePage(p);
+                    metrics.writeLatency.recordSince(start);
+                }
+            }
+            for (Page p : e.getValue())
+                p.markDirty(false, null);
+        }
+    }
+
     /**
      * Flush all dirty pages to disk.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
@@ -197,9 +492,13 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for proj1
-        for (PageId key : bpage.keySet()) {
-            flushPage(key);
+        List<Page> dirty = new ArrayList<Page>();
+        for (Frame frame : bpage.values()) {
+            Page p = frame.page;
+            if (p != null && p.isDirty() != null)
+                dirty.add(p);
         }
+        writePages(dirty);
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -208,63 +507,76 @@ public class BufferPool {
         cache.
     */
     public synchronized void discardPage(PageId pid) {
-        // some code goes here
-	// not necessary for proj1
+        Page p = residentPage(pid);
+        if (p != null && p.isDirty() != null) {
+            DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+            if (file instanceof HeapFile)
+                ((HeapFile)file).pageDiscarded(p);
+        }
+        removeFrame(pid);
     }
 
     /**
-     * Flushes a certain page to disk
-     * @param pid an ID indicating the page to flush
+     * Drops a loaded page from the replacement policy and the page table.
+     * The policy forgets the page first: once the frame is unpublished,
+     * another thread may read the page in again and register it with the
+     * policy, and that entry must survive.
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
-        // some code goes here
-        // not necessary for proj1
-        Page flush = bpage.get(pid);
-        DbFile file = Database.getCatalog().getDbFile(pid.getTableId());// accessing dbfile using methods from other classes
-        TransactionId dirty = flush.isDirty(); // fetching the dirty transactionId
-        if(dirty != null){
-            file.writePage(flush);
-            flush.markDirty(false, null);
-        }
+    private void removeFrame(PageId pid) {
+        Frame frame = bpage.get(pid);
+        if (frame == null || frame.page == null)
+            return;
+        policy.pageRemoved(pid);
+        if (bpage.remove(pid, frame))
+            releaseFrame(frame);
     }
 
     /** Write all pages of the specified transaction to disk.
      */
     public synchronized  void flushPages(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for proj1
+        List<Page> mine = new ArrayList<Page>();
+        for (Frame frame : bpage.values()) {
+            Page p = frame.page;
+            TransactionId dirtier = p == null ? null : p.isDirty();
+            if (dirtier != null && dirtier.equals(tid))
+                mine.add(p);
+        }
+        writePages(mine);
+        // the committed contents are what a later abort reverts to
+        for (Page p : mine)
+            p.setBeforeImage();
     }
 
     /**
      * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Only clean pages that are not write-locked are chosen: a dirty page
+     * belongs to a transaction that is still running (NO STEAL), since
+     * commit writes a transaction's pages and abort drops them.
+     *
+     * @return false if no page could be evicted
      */
-    private synchronized  void evictPage() throws DbException {
+    private synchronized  boolean evictPage() throws DbException {
         // some code goes here
         // not necessary for proj1
 
-        PageId lru_pageid = null; // least recently used pageid
-        int i = -1;
-        //Finding page with highest priority(least recently used)
-        for(PageId iter : recent.keySet()){
-                int prior = recent.get(iter);
-                if( prior > i){
-                i = prior;
-                lru_pageid = iter;
-            }
-        }
-        //writing the page to disk if it's dirty
-        try{
-            flushPage(lru_pageid);
-        }catch (IOException e){
-            e.printStackTrace();
-        }
+        PageId victim = policy.chooseVictim(evictable);
+        if (victim == null)
+            return false;
+        metrics.evicted();
         // removing the page from bufferpool
-        bpage.remove(lru_pageid);
-        // removing the pageid from recently accesed page's hashmap <v>recent<v>
-        recent.remove(lru_pageid);
+        removeFrame(victim);
+        return true;
     }
 
+    private final ReplacementPolicy.Evictable evictable = new ReplacementPolicy.Evictable() {
+        public boolean canEvict(PageId pid) {
+            if (lockManager.isWriteLocked(pid))
+                return false;
+            Page p = residentPage(pid);
+            return p != null && p.isDirty() == null;
+        }
+    };
+
 
 }
  
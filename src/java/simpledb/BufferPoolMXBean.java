@@ -0,0 +1,58 @@
+package simpledb;
+
+import java.util.Map;
+
+/**
+ * The management interface of a BufferPool's metrics, registered with the
+ * platform MBean server under {@link BufferPoolMetrics#OBJECT_NAME}. All
+ * counts are totals since the pool was created.
+ *
+ * @see BufferPoolMetrics
+ */
+public interface BufferPoolMXBean {
+
+    /** @return the number of page requests served from the pool */
+    long getHits();
+
+    /** @return the number of page requests that read the page from disk */
+    long getMisses();
+
+    /** @return hits / (hits + misses), or 0 if no page was requested */
+    double getHitRatio();
+
+    /** @return the hits of each table, by table name */
+    Map<String,Long> getTableHits();
+
+    /** @return the misses of each table, by table name */
+    Map<String,Long> getTableMisses();
+
+    /** @return the number of pages evicted */
+    long getEvictions();
+
+    /** @return the number of pages in the pool */
+    int getResidentPages();
+
+    /** @return the number of PAGE_SIZE frames taken by the resident pages */
+    int getUsedFrames();
+
+    /** @return the number of PAGE_SIZE frames the pool holds */
+    int getCapacity();
+
+    /**
+     * @return the number of page reads per latency bucket
+     * @see LatencyHistogram
+     */
+    long[] getReadLatencyHistogram();
+
+    /**
+     * @return the number of page write calls per latency bucket
+     * @see LatencyHistogram
+     */
+    long[] getWriteLatencyHistogram();
+
+    /** @return the time spent reading pages, in nanoseconds */
+    long getReadNanos();
+
+    /** @return the time spent writing pages, in nanoseconds */
+    long getWriteNanos();
+}
@@ -0,0 +1,218 @@
+package simpledb;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.*;
+
+/**
+ * BufferPoolMetrics counts what a BufferPool does: hits and misses per
+ * table, evictions, and how long page reads and writes take. The counters
+ * are {@link StripedCounter}s and {@link LatencyHistogram}s, so counting
+ * takes no lock and is cheap enough to leave on.
+ * <p>
+ * A page request made by a transaction is a hit if the page is resident and
+ * a miss if it is read in. Pages read ahead of a scan (see {@link ReadAhead})
+ * are not counted as requests; the scan's own request for such a page is a
+ * hit. Every read of a page from its DbFile is timed, and so is every write
+ * call, which for a HeapFile may write a run of adjacent pages.
+ * <p>
+ * {@link #snapshot} returns the current values for use in Java; the same
+ * values are available over JMX once {@link #registerMBean} is called.
+ */
+public class BufferPoolMetrics implements BufferPoolMXBean {
+
+    /** The JMX name the metrics of the current pool are registered under. */
+    public static final String OBJECT_NAME = "simpledb:type=BufferPool";
+
+    /* the metrics currently registered with the MBean server */
+    private static BufferPoolMetrics registered;
+
+    private static class TableCounters {
+        final StripedCounter hits = new StripedCounter();
+        final StripedCounter misses = new StripedCounter();
+    }
+
+    private final BufferPool pool;
+    private final ConcurrentHashMap<Integer,TableCounters> tables;
+    private final StripedCounter evictions = new StripedCounter();
+    final LatencyHistogram readLatency = new LatencyHistogram();
+    final LatencyHistogram writeLatency = new LatencyHistogram();
+
+    BufferPoolMetrics(BufferPool pool) {
+        this.pool = pool;
+        this.tables = new ConcurrentHashMap<Integer,TableCounters>();
+    }
+
+    private TableCounters table(int tableid) {
+        TableCounters c = tables.get(tableid);
+        if (c == null) {
+            TableCounters fresh = new TableCounters();
+            c = tables.putIfAbsent(tableid, fresh);
+            if (c == null)
+                c = fresh;
+        }
+        return c;
+    }
+
+    void hit(int tableid) {
+        table(tableid).hits.increment();
+    }
+
+    void miss(int tableid) {
+        table(tableid).misses.increment();
+    }
+
+    void evicted() {
+        evictions.increment();
+    }
+
+    /**
+     * The values of a pool's metrics at one point in time. The counters are
+     * read one after the other while the pool keeps running, so they need
+     * not add up exactly.
+     */
+    public static class Snapshot {
+        private final Map<Integer,Long> hits;
+        private final Map<Integer,Long> misses;
+        private final long evictions;
+        private final int residentPages;
+        private final int usedFrames;
+        private final int capacity;
+        private final long[] readLatency;
+        private final long[] writeLatency;
+        private final long readNanos;
+        private final long writeNanos;
+
+        Snapshot(BufferPoolMetrics m) {
+            Map<Integer,Long> h = new TreeMap<Integer,Long>();
+            Map<Integer,Long> s = new TreeMap<Integer,Long>();
+            for (Map.Entry<Integer,TableCounters> e : m.tables.entrySet()) {
+                h.put(e.getKey(), e.getValue().hits.sum());
+                s.put(e.getKey(), e.getValue().misses.sum());
+            }
+            hits = Collections.unmodifiableMap(h);
+            misses = Collections.unmodifiableMap(s);
+            evictions = m.evictions.sum();
+            residentPages = m.pool.numResidentPages();
+            usedFrames = m.pool.numUsedFrames();
+            capacity = m.pool.getNumPages();
+            readLatency = m.readLatency.counts();
+            writeLatency = m.writeLatency.counts();
+            readNanos = m.readLatency.totalNanos();
+            writeNanos = m.writeLatency.totalNanos();
+        }
+
+        private static long sum(Map<Integer,Long> m) {
+            long sum = 0;
+            for (long v : m.values())
+                sum += v;
+            return sum;
+        }
+
+        /** @return the hits of each table that was requested, by table id */
+        public Map<Integer,Long> getTableHits() { return hits; }
+
+        /** @return the misses of each table that was requested, by table id */
+        public Map<Integer,Long> getTableMisses() { return misses; }
+
+        /** @return the hits of the specified table */
+        public long getHits(int tableid) {
+            Long v = hits.get(tableid);
+            return v == null ? 0 : v;
+        }
+
+        /** @return the misses of the specified table */
+        public long getMisses(int tableid) {
+            Long v = misses.get(tableid);
+            return v == null ? 0 : v;
+        }
+
+        public long getHits() { return sum(hits); }
+        public long getMisses() { return sum(misses); }
+
+        /** @return hits / (hits + misses), or 0 if no page was requested */
+        public double getHitRatio() {
+            long h = getHits();
+            long total = h + getMisses();
+            return total == 0 ? 0 : (double)h / total;
+        }
+
+        public long getEvictions() { return evictions; }
+        public int getResidentPages() { return residentPages; }
+        public int getUsedFrames() { return usedFrames; }
+        public int getCapacity() { return capacity; }
+        public long[] getReadLatencyHistogram() { return readLatency.clone(); }
+        public long[] getWriteLatencyHistogram() { return writeLatency.clone(); }
+        public long getReadNanos() { return readNanos; }
+        public long getWriteNanos() { return writeNanos; }
+    }
+
+    /** @return the current values of the metrics */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    private Map<String,Long> byName(Map<Integer,Long> byId) {
+        Map<String,Long> named = new TreeMap<String,Long>();
+        for (Map.Entry<Integer,Long> e : byId.entrySet()) {
+            String name = Database.getCatalog().getTableName(e.getKey());
+            if (name == null)
+                name = String.valueOf(e.getKey());
+            Long old = named.get(name);
+            named.put(name, old == null ? e.getValue() : old + e.getValue());
+        }
+        return named;
+    }
+
+    public long getHits() { return snapshot().getHits(); }
+    public long getMisses() { return snapshot().getMisses(); }
+    public double getHitRatio() { return snapshot().getHitRatio(); }
+    public Map<String,Long> getTableHits() { return byName(snapshot().getTableHits()); }
+    public Map<String,Long> getTableMisses() { return byName(snapshot().getTableMisses()); }
+    public long getEvictions() { return evictions.sum(); }
+    public int getResidentPages() { return pool.numResidentPages(); }
+    public int getUsedFrames() { return pool.numUsedFrames(); }
+    public int getCapacity() { return pool.getNumPages(); }
+    public long[] getReadLatencyHistogram() { return readLatency.counts(); }
+    public long[] getWriteLatencyHistogram() { return writeLatency.counts(); }
+    public long getReadNanos() { return readLatency.totalNanos(); }
+    public long getWriteNanos() { return writeLatency.totalNanos(); }
+
+    /**
+     * Registers these metrics with the platform MBean server under
+     * {@link #OBJECT_NAME}, in place of the metrics of an earlier pool.
+     * A failure is reported on stderr; the metrics stay available through
+     * {@link #snapshot}.
+     */
+    public void registerMBean() {
+        synchronized (BufferPoolMetrics.class) {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = new ObjectName(OBJECT_NAME);
+                if (server.isRegistered(name))
+                    server.unregisterMBean(name);
+                server.registerMBean(this, name);
+                registered = this;
+            } catch (JMException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /** Removes these metrics from the MBean server, if they are registered. */
+    public void unregisterMBean() {
+        synchronized (BufferPoolMetrics.class) {
+            if (registered != this)
+                return;
+            registered = null;
+            try {
+                ManagementFactory.getPlatformMBeanServer()
+                        .unregisterMBean(new ObjectName(OBJECT_NAME));
+            } catch (JMException e) {
+                // already gone
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
@@ -197,14 +198,33 @@ public class Catalog {
         return null;
     }
     
-    /** Delete all tables from the catalog */
+    /** Delete all tables from the catalog, closing the files that hold them */
     public void clear() {
+        for (Table t : details) {
+            if (t.getFile() instanceof Closeable) {
+                try {
+                    ((Closeable)t.getFile()).close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
         details.clear();
-        // some code goes here
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line has the format
+     * <pre>name (field type [pk], field type, ...) [storage] [pagesize=N]</pre>
+     * where the optional storage keyword selects the DbFile used for the
+     * table: <code>heap</code> (the default), <code>mmap</code> for a
+     * {@link MappedHeapFile}, <code>slotted</code> for a
+     * {@link SlottedHeapFile}, <code>compressed</code> for a
+     * {@link CompressedHeapFile} or <code>columnar</code> for a
+     * {@link PaxHeapFile}, and the optional page size is the number of
+     * bytes per page of the table's file (default
+     * {@link BufferPool#PAGE_SIZE}); the buffer pool charges each page its
+     * size rounded up to {@link BufferPool#FRAME_UNIT} bytes.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -245,7 +265,8 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                DbFile tabHf = openTable(new File(baseFolder+"/"+name + ".dat"), t, options);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -257,5 +278,44 @@ public class Catalog {
             System.exit(0);
         }
     }
+
+    /**
+     * Creates the DbFile for a table of the catalog file, as selected by the
+     * options that follow its schema.
+     */
+    private DbFile openTable(File f, TupleDesc td, String options) {
+        String storage = "heap";
+        int pageSize = BufferPool.PAGE_SIZE;
+        for (String opt : options.toLowerCase().split("\\s+")) {
+            if (opt.length() == 0)
+                continue;
+            if (opt.startsWith("pagesize=")) {
+                try {
+                    pageSize = Integer.parseInt(opt.substring("pagesize=".length()));
+                } catch (NumberFormatException e) {
+                    pageSize = -1;
+                }
+                if (pageSize <= 0) {
+                    System.out.println("Invalid page size " + opt);
+                    System.exit(0);
+                }
+            } else {
+                storage = opt;
+            }
+        }
+        if (storage.equals("heap"))
+            return new HeapFile(f, td, pageSize);
+        if (storage.equals("mmap"))
+            return new MappedHeapFile(f, td, pageSize);
+        if (storage.equals("slotted"))
+            return new SlottedHeapFile(f, td, pageSize);
+        if (storage.equals("compressed"))
+            return new CompressedHeapFile(f, td, pageSize);
+        if (storage.equals("columnar"))
+            return new PaxHeapFile(f, td, pageSize);
+        System.out.println("Unknown storage " + options);
+        System.exit(0);
+        return null;
+    }
 }
 
@@ -0,0 +1,134 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ClockPolicy implements the CLOCK (second chance) replacement policy. Every
+ * resident page owns a slot on a circular array together with a reference
+ * bit. A hit only sets the bit; choosing a victim sweeps the clock hand,
+ * clearing set bits, until it reaches a page whose bit is clear.
+ * <p>
+ * Hits do not take the clock's lock. Reference bits are only hints, so a
+ * racing hit that sets the bit of a slot that was just reused merely gives
+ * the new page one extra chance.
+ * <p>
+ * Pages loaded cold are also queued, in load order, on a short list that is
+ * consulted before the clock is swept. A cold page whose reference bit has
+ * been set since has left the list by the time it is reached, and from then
+ * on it is handled by the clock like any other page.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    private PageId[] slots;
+    private volatile boolean[] referenced;
+    private int[] freeSlots;
+    private int numFree;
+    private final ConcurrentHashMap<PageId, Integer> slotOf;
+    private int hand;
+    private final LinkedHashSet<PageId> coldPages;
+
+    /**
+     * Creates a clock with room for the specified number of pages.
+     *
+     * @param numPages the number of frames in the buffer pool
+     */
+    public ClockPolicy(int numPages) {
+        int size = Math.max(numPages, 1);
+        slots = new PageId[size];
+        referenced = new boolean[size];
+        freeSlots = new int[size];
+        for (int i = 0; i < size; i++)
+            freeSlots[i] = size - 1 - i;
+        numFree = size;
+        slotOf = new ConcurrentHashMap<PageId, Integer>();
+        hand = 0;
+        coldPages = new LinkedHashSet<PageId>();
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        Integer slot = slotOf.get(pid);
+        if (slot == null) {
+            if (numFree == 0)
+                grow();
+            slot = freeSlots[--numFree];
+            slots[slot] = pid;
+            slotOf.put(pid, slot);
+        }
+        referenced[slot] = true;
+    }
+
+    public synchronized void pageLoadedCold(PageId pid) {
+        if (slotOf.containsKey(pid))
+            return;
+        pageLoaded(pid);
+        referenced[slotOf.get(pid)] = false;
+        coldPages.add(pid);
+    }
+
+    public void pageAccessed(PageId pid) {
+        Integer slot = slotOf.get(pid);
+        boolean[] bits = referenced;
+        if (slot != null && slot < bits.length)
+            bits[slot] = true;
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Integer slot = slotOf.remove(pid);
+        if (slot == null)
+            return;
+        coldPages.remove(pid);
+        slots[slot] = null;
+        referenced[slot] = false;
+        freeSlots[numFree++] = slot;
+    }
+
+    public synchronized PageId chooseVictim(Evictable filter) {
+        Iterator<PageId> it = coldPages.iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (referenced[slotOf.get(pid)]) {
+                it.remove();
+                continue;
+            }
+            if (filter.canEvict(pid))
+                return pid;
+        }
+        // two full turns are enough: the first clears every reference bit
+        for (int i = 0; i < 2 * slots.length; i++) {
+            int slot = hand;
+            hand = (hand + 1) % slots.length;
+            PageId pid = slots[slot];
+            if (pid == null)
+                continue;
+            if (referenced[slot]) {
+                referenced[slot] = false;
+                continue;
+            }
+            if (filter.canEvict(pid))
+                return pid;
+        }
+        return null;
+    }
+
+    /**
+     * Doubles the number of slots. Only needed if the pool briefly holds
+     * more pages than it was sized for.
+     */
+    private void grow() {
+        int oldSize = slots.length;
+        int newSize = oldSize * 2;
+        PageId[] newSlots = new PageId[newSize];
+        boolean[] newReferenced = new boolean[newSize];
+        System.arraycopy(slots, 0, newSlots, 0, oldSize);
+        System.arraycopy(referenced, 0, newReferenced, 0, oldSize);
+        int[] newFree = new int[newSize];
+        for (int i = 0; i < oldSize; i++)
+            newFree[i] = newSize - 1 - i;
+        slots = newSlots;
+        referenced = newReferenced;
+        freeSlots = newFree;
+        numFree = oldSize;
+    }
+}
@@ -0,0 +1,100 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ColumnScan is a sequential scan that returns only some of the columns of a
+ * table. Over a {@link PaxHeapFile} it decodes only the values of those
+ * columns; over any other HeapFile it decodes whole tuples and copies the
+ * columns (see {@link HeapFile#iterator(TransactionId, int[])}).
+ * <p>
+ * LogicalPlan scans a PaxHeapFile table with a ColumnScan when the query
+ * uses only some of its columns, and every other table with a
+ * {@link SeqScan}.
+ */
+public class ColumnScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private TransactionId tid;
+    private int tableid;
+    private String tableAlias;
+    private int[] columns;
+    private HeapFile file;
+    private DbFileIterator i;
+    private TupleDesc projected;
+
+    /**
+     * Creates a scan over the specified columns of a table as a part of the
+     * specified transaction.
+     *
+     * @param tid the transaction this scan is running as a part of
+     * @param tableid the table to scan
+     * @param tableAlias the alias of this table; the returned tupleDesc has
+     *        fields named tableAlias fieldName, as in SeqScan
+     * @param columns the indexes of the columns to return, in output order
+     * @throws DbException if the table is not stored in a HeapFile
+     */
+    public ColumnScan(TransactionId tid, int tableid, String tableAlias, int[] columns)
+            throws DbException {
+        DbFile f = Database.getCatalog().getDbFile(tableid);
+        if (!(f instanceof HeapFile))
+            throw new DbException("can't scan columns of table "
+                    + Database.getCatalog().getTableName(tableid)
+                    + ": it is not stored in a HeapFile");
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.columns = columns.clone();
+        this.file = (HeapFile)f;
+        this.projected = file.project(columns);
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        i = file.iterator(tid, columns);
+        i.open();
+    }
+
+    /**
+     * Returns the TupleDesc of the scanned columns, with their names prefixed
+     * with the tableAlias string from the constructor.
+     */
+    public TupleDesc getTupleDesc() {
+        int len = projected.numFields();
+        String[] names = new String[len];
+        Type[] types = new Type[len];
+        for (int k = 0; k < len; k++) {
+            types[k] = projected.getFieldType(k);
+            names[k] = tableAlias + " " + projected.getFieldName(k);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        return i != null && i.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (i == null)
+            throw new NoSuchElementException();
+        return i.next();
+    }
+
+    public void close() {
+        if (i != null)
+            i.close();
+        i = null;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        if (i != null)
+            i.rewind();
+    }
+}
@@ -0,0 +1,277 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+import com.jcraft.jzlib.JZlib;
+import com.jcraft.jzlib.ZStream;
+
+/**
+ * CompressedHeapFile is a HeapFile whose pages are stored on disk compressed
+ * with zlib (jzlib), one page at a time. A page is decompressed when it is
+ * read into the BufferPool, so everything above the file sees ordinary
+ * HeapPages. It is meant for cold tables that are mostly scanned.
+ * <p>
+ * A page's compressed bytes are stored in an extent of the data file. An
+ * index file next to it (suffix {@link #INDEX_SUFFIX}) maps each page number
+ * to its extent, with {@link #ENTRY_SIZE} bytes per page: the offset (8
+ * bytes), the compressed length and the extent's capacity (4 bytes each). A
+ * length of 0 stands for a page of all zeros. Extents are rounded up to
+ * {@link #EXTENT_ALIGN} bytes; a page that no longer fits its extent is
+ * written to a new extent at the end of the file, and the old one is not
+ * reused.
+ *
+ * @see #compress
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Suffix of the index file. */
+    public static final String INDEX_SUFFIX = ".idx";
+    /** Bytes per page in the index file. */
+    public static final int ENTRY_SIZE = 16;
+    /** Extents are allocated in multiples of this many bytes. */
+    public static final int EXTENT_ALIGN = 256;
+
+    /* the index, loaded on first use */
+    private transient long[] offsets;
+    private transient int[] lengths;
+    private transient int[] capacities;
+    private transient int count;
+    private transient long dataEnd;
+    private transient RandomAccessFile index;
+
+    public CompressedHeapFile(File f, TupleDesc td) {
+        this(f, td, BufferPool.PAGE_SIZE);
+    }
+
+    public CompressedHeapFile(File f, TupleDesc td, int pageSize) {
+        super(f, td, pageSize);
+    }
+
+    private File indexFile() {
+        return new File(f.getPath() + INDEX_SUFFIX);
+    }
+
+    /** Reads the index file, if that has not been done yet. */
+    private synchronized void loadIndex() throws IOException {
+        if (offsets != null)
+            return;
+        index = new RandomAccessFile(indexFile(), "rw");
+        int n = (int)(index.length() / ENTRY_SIZE);
+        offsets = new long[Math.max(n, 16)];
+        lengths = new int[offsets.length];
+        capacities = new int[offsets.length];
+        byte[] entries = new byte[n * ENTRY_SIZE];
+        index.readFully(entries);
+        ByteBuffer in = ByteBuffer.wrap(entries);
+        dataEnd = 0;
+        for (int i = 0; i < n; i++) {
+            offsets[i] = in.getLong();
+            lengths[i] = in.getInt();
+            capacities[i] = in.getInt();
+            dataEnd = Math.max(dataEnd, offsets[i] + capacities[i]);
+        }
+        count = n;
+    }
+
+    /** Records the extent of a page in memory and in the index file. */
+    private void setEntry(int pgNo, long offset, int length, int capacity)
+            throws IOException {
+        if (pgNo >= offsets.length) {
+            int size = Math.max(pgNo + 1, offsets.length * 2);
+            offsets = Arrays.copyOf(offsets, size);
+            lengths = Arrays.copyOf(lengths, size);
+            capacities = Arrays.copyOf(capacities, size);
+        }
+        // pages skipped over are empty
+        for (int i = count; i < pgNo; i++)
+            setEntry(i, 0, 0, 0);
+        offsets[pgNo] = offset;
+        lengths[pgNo] = length;
+        capacities[pgNo] = capacity;
+        count = Math.max(count, pgNo + 1);
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+        entry.putLong(offset).putInt(length).putInt(capacity);
+        index.seek((long)pgNo * ENTRY_SIZE);
+        index.write(entry.array());
+    }
+
+    /**
+     * Returns the number of pages in this file, as recorded in its index.
+     */
+    public int numPages() {
+        try {
+            loadIndex();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+        synchronized (this) {
+            return count;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        int pgNo = pid.pageNumber();
+        try {
+            loadIndex();
+            long offset;
+            int length;
+            synchronized (this) {
+                offset = pgNo < count ? offsets[pgNo] : 0;
+                length = pgNo < count ? lengths[pgNo] : 0;
+            }
+            byte[] page = new byte[pageSize];
+            if (length > 0) {
+                byte[] packed = new byte[length];
+                readFully(ByteBuffer.wrap(packed), offset);
+                inflate(packed, page);
+            }
+            return createPage((HeapPageId)pid, page);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        loadIndex();
+        int pgNo = page.getId().pageNumber();
+        byte[] packed = deflate(page.getPageData());
+        synchronized (this) {
+            long offset;
+            int capacity;
+            if (pgNo < count && packed.length <= capacities[pgNo]) {
+                offset = offsets[pgNo];
+                capacity = capacities[pgNo];
+            } else {
+                offset = dataEnd;
+                capacity = (packed.length + EXTENT_ALIGN - 1) / EXTENT_ALIGN * EXTENT_ALIGN;
+                dataEnd += capacity;
+            }
+            writeFully(ByteBuffer.wrap(packed), offset);
+            setEntry(pgNo, offset, packed.length, capacity);
+        }
+        if (page instanceof TuplePage)
+            freeSpace().persist(pgNo, ((TuplePage)page).getNumEmptySlots());
+    }
+
+    /**
+     * Writes the pages one at a time: their extents are not adjacent in
+     * general, so nothing is gained by coalescing them.
+     */
+    public void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages)
+            writePage(p);
+    }
+
+    /** Adds an empty page, which takes no space in the data file. */
+    protected synchronized int appendEmptyPage() throws IOException {
+        loadIndex();
+        int pgNo = count;
+        setEntry(pgNo, 0, 0, 0);
+        return pgNo;
+    }
+
+    /**
+     * Closes the data file and the index file.
+     */
+    public synchronized void close() throws IOException {
+        if (index != null)
+            index.close();
+        index = null;
+        offsets = null;
+        lengths = null;
+        capacities = null;
+        count = 0;
+        super.close();
+    }
+
+    /** @return the zlib-compressed bytes of page */
+    static byte[] deflate(byte[] page) throws IOException {
+        ZStream z = new ZStream();
+        z.deflateInit(JZlib.Z_DEFAULT_COMPRESSION);
+        byte[] out = new byte[page.length + page.length / 100 + 64];
+        z.next_in = page;
+        z.next_in_index = 0;
+        z.avail_in = page.length;
+        z.next_out = out;
+        z.next_out_index = 0;
+        z.avail_out = out.length;
+        int err = z.deflate(JZlib.Z_FINISH);
+        z.deflateEnd();
+        if (err != JZlib.Z_STREAM_END)
+            throw new IOException("could not compress page: " + err);
+        return Arrays.copyOf(out, (int)z.total_out);
+    }
+
+    /** Decompresses packed into page, which must be exactly filled. */
+    static void inflate(byte[] packed, byte[] page) throws IOException {
+        ZStream z = new ZStream();
+        z.inflateInit();
+        z.next_in = packed;
+        z.next_in_index = 0;
+        z.avail_in = packed.length;
+        z.next_out = page;
+        z.next_out_index = 0;
+        z.avail_out = page.length;
+        int err = z.inflate(JZlib.Z_FINISH);
+        z.inflateEnd();
+        if (err != JZlib.Z_STREAM_END || z.total_out != page.length)
+            throw new IOException("corrupt compressed page: " + err);
+    }
+
+    /**
+     * Writes a compressed copy of a heap file.
+     *
+     * @param heapFile a file of uncompressed pages, as written by HeapFile
+     *        or HeapFileEncoder
+     * @param outFile the compressed file; its index is written next to it
+     * @param pageSize the number of bytes per page of heapFile
+     */
+    public static void compress(File heapFile, File outFile, int pageSize)
+            throws IOException {
+        FileInputStream in = new FileInputStream(heapFile);
+        FileOutputStream data = new FileOutputStream(outFile);
+        DataOutputStream idx = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(new File(outFile.getPath() + INDEX_SUFFIX))));
+        try {
+            FileChannel out = data.getChannel();
+            DataInputStream pages = new DataInputStream(new BufferedInputStream(in));
+            long numPages = (heapFile.length() + pageSize - 1) / pageSize;
+            byte[] page = new byte[pageSize];
+            long offset = 0;
+            for (long i = 0; i < numPages; i++) {
+                Arrays.fill(page, (byte)0);
+                int n = 0;
+                while (n < pageSize) {
+                    int r = pages.read(page, n, pageSize - n);
+                    if (r < 0)
+                        break;
+                    n += r;
+                }
+                byte[] packed = deflate(page);
+                int capacity = (packed.length + EXTENT_ALIGN - 1) / EXTENT_ALIGN * EXTENT_ALIGN;
+                ByteBuffer extent = ByteBuffer.allocate(capacity);
+                extent.put(packed);
+                extent.clear();
+                while (extent.hasRemaining())
+                    out.write(extent);
+                idx.writeLong(offset);
+                idx.writeInt(packed.length);
+                idx.writeInt(capacity);
+                offset += capacity;
+            }
+        } finally {
+            in.close();
+            data.close();
+            idx.close();
+        }
+    }
+}
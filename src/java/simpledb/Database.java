@@ -21,6 +21,7 @@ public class Database {
     private Database() {
     	_catalog = new Catalog();
     	_bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+    	_bufferpool.getMetrics().registerMBean();
     	try {
             _logfile = new LogFile(new File(LOGFILENAME));
         } catch(IOException e) {
@@ -50,12 +51,17 @@ public class Database {
         buffer pool and return it
     */
     public static BufferPool resetBufferPool(int pages) {
+        _instance._bufferpool.shutdown();
         _instance._bufferpool = new BufferPool(pages);
+        _instance._bufferpool.getMetrics().registerMBean();
         return _instance._bufferpool;
     }
 
     //reset the database, used for unit tests only.
+    //the tables of the old catalog are closed.
     public static void reset() {
+    	_instance._bufferpool.shutdown();
+    	_instance._catalog.clear();
     	_instance = new Database();
     }
 
@@ -79,6 +79,15 @@ public interface DbFile extends Serializable {
      */
     public int getId();
     
+    /**
+     * Returns the size in bytes of the pages of this file. Each file may use
+     * its own page size; the BufferPool charges a page of this file
+     * {@link BufferPool#frameUnits} of its capacity.
+     *
+     * @return the number of bytes per page of this DbFile.
+     */
+    public int bytesPerPage();
+
     /**
      * Returns the TupleDesc of the table stored in this DbFile.
      * @return TupleDesc of this DbFile.
@@ -0,0 +1,148 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap records how many free tuple slots each page of a HeapFile has,
+ * so an insert can find a page with room without reading the table. The map
+ * keeps one byte per page (the number of free slots, capped at
+ * {@link #MAX_LEVEL}) in a side file next to the table, plus an in-memory
+ * bitmap of the pages that have room.
+ * <p>
+ * The map is only a hint: callers check the page they are pointed to and
+ * report what they found with {@link #update}. A page's byte is written to
+ * the side file when the page is appended to the table and whenever the
+ * page itself is written, so the side file never has a hole and after a
+ * crash the two can only disagree about pages that were being written at
+ * the time. If
+ * the side file does not cover every page of the table (it is missing, or
+ * pages were appended after it was last written), it is rebuilt by reading
+ * the table once.
+ */
+public class FreeSpaceMap implements Closeable {
+
+    /** Free slot counts above this are stored as this value. */
+    public static final int MAX_LEVEL = 255;
+
+    private final File file;
+    private byte[] levels;
+    private int numPages;
+    private final BitSet withRoom;
+    /* where the last search ended, so repeated inserts do not rescan */
+    private int cursor;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+
+    /**
+     * Opens the free-space map stored in the specified side file, building it
+     * from the table if it is missing or out of date.
+     *
+     * @param file the side file
+     * @param hf the table the map describes
+     */
+    public FreeSpaceMap(File file, HeapFile hf) throws IOException {
+        this.file = file;
+        this.withRoom = new BitSet();
+        int pages = hf.numPages();
+        levels = new byte[Math.max(pages, 16)];
+        if (file.length() == pages) {
+            ByteBuffer buf = ByteBuffer.wrap(levels, 0, pages);
+            FileChannel ch = channel();
+            while (buf.hasRemaining() && ch.read(buf, buf.position()) >= 0)
+                ;
+        } else {
+            rebuild(hf, pages);
+        }
+        numPages = pages;
+        for (int i = 0; i < pages; i++)
+            if (levels[i] != 0)
+                withRoom.set(i);
+    }
+
+    /** Computes the level of every page from the table and saves the map. */
+    private void rebuild(HeapFile hf, int pages) throws IOException {
+        for (int i = 0; i < pages; i++) {
+            Page p = hf.readPage(new HeapPageId(hf.getId(), i));
+            if (p instanceof TuplePage)
+                levels[i] = level(((TuplePage)p).getNumEmptySlots());
+        }
+        FileChannel ch = channel();
+        ch.truncate(0);
+        ByteBuffer buf = ByteBuffer.wrap(levels, 0, pages);
+        while (buf.hasRemaining())
+            ch.write(buf, buf.position());
+    }
+
+    private static byte level(int freeSlots) {
+        return (byte)Math.max(0, Math.min(freeSlots, MAX_LEVEL));
+    }
+
+    private FileChannel channel() throws IOException {
+        if (channel == null) {
+            raf = new RandomAccessFile(file, "rw");
+            channel = raf.getChannel();
+        }
+        return channel;
+    }
+
+    /** @return the number of pages the map describes */
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    /** @return the recorded number of free slots of a page, at most MAX_LEVEL */
+    public synchronized int freeSlots(int pgNo) {
+        return pgNo < numPages ? levels[pgNo] & 0xff : 0;
+    }
+
+    /**
+     * @return a page that is recorded as having a free slot, or -1 if there
+     *         is none
+     */
+    public synchronized int findPageWithRoom() {
+        int pg = withRoom.nextSetBit(cursor);
+        if (pg < 0 || pg >= numPages)
+            pg = withRoom.nextSetBit(0);
+        if (pg < 0 || pg >= numPages)
+            return -1;
+        cursor = pg;
+        return pg;
+    }
+
+    /**
+     * Records the number of free slots of a page in memory only.
+     */
+    public synchronized void update(int pgNo, int freeSlots) {
+        if (pgNo >= levels.length) {
+            byte[] grown = new byte[Math.max(pgNo + 1, levels.length * 2)];
+            System.arraycopy(levels, 0, grown, 0, numPages);
+            levels = grown;
+        }
+        if (pgNo >= numPages)
+            numPages = pgNo + 1;
+        levels[pgNo] = level(freeSlots);
+        withRoom.set(pgNo, freeSlots > 0);
+    }
+
+    /**
+     * Records the number of free slots of a page that is being written to
+     * disk, and writes its byte to the side file.
+     */
+    public synchronized void persist(int pgNo, int freeSlots) throws IOException {
+        update(pgNo, freeSlots);
+        channel().write(ByteBuffer.wrap(levels, pgNo, 1), pgNo);
+    }
+
+    /**
+     * Closes the side file.
+     */
+    public synchronized void close() throws IOException {
+        if (raf != null)
+            raf.close();
+        raf = null;
+        channel = null;
+    }
+}
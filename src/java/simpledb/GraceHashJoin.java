@@ -0,0 +1,572 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * GraceHashJoin is an equi-join whose build side need not fit in memory.
+ * It builds an in-memory hash table like {@link HashJoin} until the table
+ * holds more than a budgeted number of tuples. It then hashes both inputs
+ * into {@link #FANOUT} partitions, keeping partition 0 in memory (a hybrid
+ * hash join) and writing the others to temporary files. Probe tuples of
+ * partition 0 are joined as they are read; each spilled partition is joined
+ * afterwards from its files.
+ * <p>
+ * A spilled partition whose build side is still over budget is partitioned
+ * again with a different hash, up to {@link #MAX_DEPTH} times. A partition
+ * that stays over budget, such as one with a single very common key, is
+ * joined a budget of build tuples at a time with one pass over its probe
+ * file per chunk, so the heap used never exceeds the budget.
+ * <p>
+ * The budget is a number of tuples. By default it is the number of build
+ * tuples that fit in the join memory budget (see {@link #setMemoryBudget}),
+ * a share of the Java heap that is the same for every join; set it with the
+ * system property simpledb.JoinMemory, in bytes, for example
+ * -Dsimpledb.JoinMemory=67108864 on the command line.
+ * <p>
+ * The output tuples are the concatenation of a child1 tuple and a child2
+ * tuple, in that order, whichever side is built.
+ */
+public class GraceHashJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of partitions each input or partition is split into. */
+    public static final int FANOUT = 16;
+    /** The number of times a partition is split before it is chunked. */
+    public static final int MAX_DEPTH = 3;
+    /** The share of the maximum heap size a join may hold by default. */
+    public static final double DEFAULT_MEMORY_FRACTION = 0.25;
+    /* rough heap bytes of a tuple in a hash table on top of its serialized
+       size: the Tuple, its field array and table entry, and per Field */
+    private static final int TUPLE_OVERHEAD = 64;
+    private static final int FIELD_OVERHEAD = 24;
+
+    private static volatile long memoryBudget = Long.getLong("simpledb.JoinMemory",
+            (long)(Runtime.getRuntime().maxMemory() * DEFAULT_MEMORY_FRACTION));
+
+    /** @return the bytes of heap a join may hold in memory */
+    public static long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Sets the bytes of heap a join may hold in memory, for joins opened or
+     * planned after this call.
+     */
+    public static void setMemoryBudget(long bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("join memory budget must be positive");
+        memoryBudget = bytes;
+    }
+
+    /**
+     * Returns the number of tuples with the specified TupleDesc that fit in
+     * the join memory budget, estimating the heap a tuple takes from its
+     * fields.
+     */
+    public static int budgetTuples(TupleDesc td) {
+        long perTuple = TUPLE_OVERHEAD + (long)td.numFields() * FIELD_OVERHEAD + td.getSize();
+        return (int)Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudget / perTuple));
+    }
+
+    private JoinPredicate pred;
+    private DbIterator child1;
+    private DbIterator child2;
+    private final boolean buildLeft;
+    private final int budget;
+    private TupleDesc td;
+
+    private transient DbIterator build, probeChild;
+    private transient int buildField, probeField;
+    private transient boolean copy;
+    private transient Tuple reused;
+
+    private transient HashMap<Field,ArrayList<Tuple>> table;
+    private transient int tableSize;
+    /* the spilled partitions of the inputs while they are read, null if
+       nothing has been spilled; partition 0 is null while it is in memory */
+    private transient Partition[] spilled;
+    /* spilled partitions not yet joined */
+    private transient LinkedList<Partition> pending;
+    /* the spilled partition being joined, the part of its build file not
+       yet read, and its probe file */
+    private transient Partition current;
+    private transient DataInputStream buildIn;
+    private transient int buildLeftToRead;
+    private transient DataInputStream probeIn;
+    private transient int probeLeftToRead;
+    private transient boolean childDone;
+
+    /* the probe tuple being joined, and its matches not yet returned */
+    private transient Tuple probe;
+    private transient Iterator<Tuple> matches;
+    private transient int spills;
+
+    /**
+     * Creates a join that builds on child2, with a budget computed from the
+     * join memory budget.
+     *
+     * @param p the predicate to join on; its operator must be EQUALS
+     * @param child1 the left child
+     * @param child2 the right child
+     * @throws IllegalArgumentException if the predicate is not an equality
+     */
+    public GraceHashJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, false, 0);
+    }
+
+    /**
+     * @param p the predicate to join on; its operator must be EQUALS
+     * @param child1 the left child
+     * @param child2 the right child
+     * @param buildLeft true to build on child1 and probe with child2
+     * @param budget the most build tuples held in memory at once, or 0 to
+     *        size it from the join memory budget (see {@link #budgetTuples})
+     * @throws IllegalArgumentException if the predicate is not an equality
+     */
+    public GraceHashJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            boolean buildLeft, int budget) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("hash join needs an equality predicate");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.buildLeft = buildLeft;
+        this.budget = budget;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    /** @return true if the hash table is built on child1 */
+    public boolean buildsLeft() {
+        return buildLeft;
+    }
+
+    /**
+     * @return the number of partitions whose build tuples were written to
+     *         disk since open
+     */
+    public int numSpilledPartitions() {
+        return spills;
+    }
+
+    public TupleDesc getTupleDesc() {
+        if (td == null)
+            td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        child1.open();
+        child2.open();
+        build = buildLeft ? child1 : child2;
+        probeChild = buildLeft ? child2 : child1;
+        buildField = buildLeft ? pred.getField1() : pred.getField2();
+        probeField = buildLeft ? pred.getField2() : pred.getField1();
+        copy = Tuple.isReuseEnabled();
+        reused = copy ? new Tuple(getTupleDesc()) : null;
+        spills = 0;
+        buildTable();
+    }
+
+    private int budget() {
+        if (budget > 0)
+            return budget;
+        return budgetTuples(build.getTupleDesc());
+    }
+
+    /** Reads the build child into the table, spilling if it overflows. */
+    private void buildTable() throws DbException, TransactionAbortedException {
+        int limit = budget();
+        table = new HashMap<Field,ArrayList<Tuple>>();
+        tableSize = 0;
+        spilled = null;
+        pending = new LinkedList<Partition>();
+        while (build.hasNext()) {
+            Tuple t = build.next();
+            if (spilled != null) {
+                int part = partition(t.getField(buildField), 0);
+                if (spilled[part] != null) {
+                    spilled[part].writeBuild(t);
+                    continue;
+                }
+            }
+            add(copy ? t.copy() : t);
+            if (tableSize > limit) {
+                if (spilled == null)
+                    startSpilling();
+                else
+                    spillPartitionZero();
+            }
+        }
+        if (spilled != null) {
+            for (Partition p : spilled)
+                if (p != null)
+                    p.startProbe();
+        }
+        childDone = false;
+        current = null;
+        probe = null;
+        matches = null;
+    }
+
+    private void add(Tuple t) {
+        Field key = t.getField(buildField);
+        ArrayList<Tuple> l = table.get(key);
+        if (l == null) {
+            l = new ArrayList<Tuple>(1);
+            table.put(key, l);
+        }
+        l.add(t);
+        tableSize++;
+    }
+
+    /**
+     * Splits the table into partitions, keeping partition 0 in memory and
+     * writing the others to disk.
+     */
+    private void startSpilling() throws DbException {
+        spilled = new Partition[FANOUT];
+        for (int i = 1; i < FANOUT; i++)
+            spilled[i] = new Partition(0);
+        HashMap<Field,ArrayList<Tuple>> old = table;
+        table = new HashMap<Field,ArrayList<Tuple>>();
+        tableSize = 0;
+        for (ArrayList<Tuple> l : old.values()) {
+            int part = partition(l.get(0).getField(buildField), 0);
+            for (Tuple t : l) {
+                if (part == 0)
+                    add(t);
+                else
+                    spilled[part].writeBuild(t);
+            }
+        }
+        if (tableSize > budget())
+            spillPartitionZero();
+    }
+
+    /** Writes the in-memory partition to disk as well. */
+    private void spillPartitionZero() throws DbException {
+        spilled[0] = new Partition(0);
+        for (ArrayList<Tuple> l : table.values())
+            for (Tuple t : l)
+                spilled[0].writeBuild(t);
+        table.clear();
+        tableSize = 0;
+    }
+
+    /**
+     * Returns the partition of the specified key at the specified depth of
+     * partitioning; each depth uses a different hash.
+     */
+    private static int partition(Field key, int depth) {
+        int h = key.hashCode() * (0x9E3779B9 + 2 * depth);
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % FANOUT;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        deleteAll();
+        table = null;
+        probe = null;
+        matches = null;
+    }
+
+    private void deleteAll() {
+        closeQuietly(buildIn);
+        closeQuietly(probeIn);
+        buildIn = probeIn = null;
+        if (current != null)
+            current.delete();
+        current = null;
+        if (spilled != null)
+            for (Partition p : spilled)
+                if (p != null)
+                    p.delete();
+        spilled = null;
+        if (pending != null)
+            for (Partition p : pending)
+                p.delete();
+        pending = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        deleteAll();
+        child1.rewind();
+        child2.rewind();
+        spills = 0;
+        buildTable();
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (matches != null && matches.hasNext()) {
+                Tuple b = matches.next();
+                return buildLeft ? joinTuples(b, probe) : joinTuples(probe, b);
+            }
+            matches = null;
+            probe = nextProbe();
+            if (probe == null) {
+                if (!nextChunk())
+                    return null;
+                continue;
+            }
+            ArrayList<Tuple> l = table.get(probe.getField(probeField));
+            if (l != null)
+                matches = l.iterator();
+        }
+    }
+
+    /**
+     * Returns the next probe tuple to look up in the table, spilling those
+     * of partitions that are on disk, or null if there are no more for the
+     * current table.
+     */
+    private Tuple nextProbe() throws TransactionAbortedException, DbException {
+        if (current != null) {
+            if (probeLeftToRead == 0)
+                return null;
+            probeLeftToRead--;
+            return read(probeIn, probeChild.getTupleDesc());
+        }
+        while (!childDone && probeChild.hasNext()) {
+            Tuple t = probeChild.next();
+            if (spilled == null)
+                return t;
+            int part = partition(t.getField(probeField), 0);
+            if (spilled[part] == null)
+                return t;
+            spilled[part].writeProbe(t);
+        }
+        if (!childDone) {
+            childDone = true;
+            if (spilled != null) {
+                for (Partition p : spilled)
+                    if (p != null)
+                        pending.add(p);
+                spilled = null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Loads the next chunk of build tuples of a spilled partition into the
+     * table and opens its probe file.
+     *
+     * @return false if every partition has been joined
+     */
+    private boolean nextChunk() throws DbException {
+        closeQuietly(probeIn);
+        probeIn = null;
+        table.clear();
+        tableSize = 0;
+        int limit = budget();
+        while (current == null || buildLeftToRead == 0) {
+            closeQuietly(buildIn);
+            buildIn = null;
+            if (current != null)
+                current.delete();
+            current = pending.poll();
+            if (current == null)
+                return false;
+            current.finish();
+            if (current.buildCount == 0 || current.probeCount == 0)
+                continue;
+            if (current.buildCount > limit && current.depth < MAX_DEPTH) {
+                repartition(current);
+                continue;
+            }
+            buildIn = current.openBuild();
+            buildLeftToRead = current.buildCount;
+        }
+        TupleDesc btd = build.getTupleDesc();
+        while (buildLeftToRead > 0 && tableSize < limit) {
+            add(read(buildIn, btd));
+            buildLeftToRead--;
+        }
+        probeIn = current.openProbe();
+        probeLeftToRead = current.probeCount;
+        return true;
+    }
+
+    /** Splits a spilled partition into FANOUT partitions one level down. */
+    private void repartition(Partition p) throws DbException {
+        Partition[] parts = new Partition[FANOUT];
+        for (int i = 0; i < FANOUT; i++)
+            parts[i] = new Partition(p.depth + 1);
+        DataInputStream in = p.openBuild();
+        TupleDesc btd = build.getTupleDesc();
+        for (int i = 0; i < p.buildCount; i++) {
+            Tuple t = read(in, btd);
+            parts[partition(t.getField(buildField), p.depth + 1)].writeBuild(t);
+        }
+        closeQuietly(in);
+        for (Partition q : parts)
+            q.startProbe();
+        in = p.openProbe();
+        TupleDesc ptd = probeChild.getTupleDesc();
+        for (int i = 0; i < p.probeCount; i++) {
+            Tuple t = read(in, ptd);
+            parts[partition(t.getField(probeField), p.depth + 1)].writeProbe(t);
+        }
+        closeQuietly(in);
+        for (Partition q : parts)
+            pending.addFirst(q);
+    }
+
+    private static Tuple read(DataInputStream in, TupleDesc td) throws DbException {
+        Tuple t = new Tuple(td);
+        try {
+            for (int i = 0; i < td.numFields(); i++)
+                t.setField(i, td.getFieldType(i).parse(in));
+        } catch (ParseException e) {
+            throw new DbException("couldn't read spilled tuple: " + e.getMessage());
+        }
+        return t;
+    }
+
+    private static void closeQuietly(Closeable c) {
+        if (c == null)
+            return;
+        try {
+            c.close();
+        } catch (IOException e) {
+            // nothing more will be read from it
+        }
+    }
+
+    private Tuple joinTuples(Tuple left, Tuple right) {
+        int n1 = left.getTupleDesc().numFields();
+        int n2 = right.getTupleDesc().numFields();
+        Tuple t = reused != null ? reused : new Tuple(getTupleDesc());
+        for (int i = 0; i < n1; i++)
+            t.setField(i, left.getField(i));
+        for (int i = 0; i < n2; i++)
+            t.setField(n1 + i, right.getField(i));
+        return t;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+        td = null;
+    }
+
+    /** The build and probe tuples of one partition, in temporary files. */
+    private class Partition {
+        final int depth;
+        File buildFile, probeFile;
+        DataOutputStream buildOut, probeOut;
+        int buildCount, probeCount;
+
+        Partition(int depth) {
+            this.depth = depth;
+        }
+
+        private DataOutputStream create(boolean isBuild) throws DbException {
+            try {
+                // removed by delete() when the join is closed or rewound
+                File f = File.createTempFile(isBuild ? "simpledb-build" : "simpledb-probe", ".tmp");
+                if (isBuild)
+                    buildFile = f;
+                else
+                    probeFile = f;
+                return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+            } catch (IOException e) {
+                throw new DbException("couldn't create spill file: " + e.getMessage());
+            }
+        }
+
+        private void write(DataOutputStream out, Tuple t) throws DbException {
+            try {
+                for (int i = 0; i < t.getTupleDesc().numFields(); i++)
+                    t.getField(i).serialize(out);
+            } catch (IOException e) {
+                throw new DbException("couldn't write spill file: " + e.getMessage());
+            }
+        }
+
+        void writeBuild(Tuple t) throws DbException {
+            if (buildOut == null) {
+                buildOut = create(true);
+                spills++;
+            }
+            write(buildOut, t);
+            buildCount++;
+        }
+
+        /** Closes the build file; no more build tuples will be written. */
+        void startProbe() throws DbException {
+            closeOut(buildOut);
+            buildOut = null;
+        }
+
+        void writeProbe(Tuple t) throws DbException {
+            if (buildCount == 0)
+                return; // nothing to join with
+            if (probeOut == null)
+                probeOut = create(false);
+            write(probeOut, t);
+            probeCount++;
+        }
+
+        /** Closes the probe file; no more probe tuples will be written. */
+        void finish() throws DbException {
+            closeOut(probeOut);
+            probeOut = null;
+        }
+
+        private void closeOut(DataOutputStream out) throws DbException {
+            if (out == null)
+                return;
+            try {
+                out.close();
+            } catch (IOException e) {
+                throw new DbException("couldn't write spill file: " + e.getMessage());
+            }
+        }
+
+        private DataInputStream open(File f) throws DbException {
+            try {
+                return new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+            } catch (IOException e) {
+                throw new DbException("couldn't read spill file: " + e.getMessage());
+            }
+        }
+
+        DataInputStream openBuild() throws DbException {
+            return open(buildFile);
+        }
+
+        DataInputStream openProbe() throws DbException {
+            return open(probeFile);
+        }
+
+        void delete() {
+            closeQuietly(buildOut);
+            closeQuietly(probeOut);
+            buildOut = probeOut = null;
+            if (buildFile != null)
+                buildFile.delete();
+            if (probeFile != null)
+                probeFile.delete();
+            buildFile = probeFile = null;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * HashJoin is an equi-join that reads one child (the build side) into an
+ * in-memory hash table on its join field, then streams the other child (the
+ * probe side) past it once. Unlike {@link Join}, neither child is rescanned,
+ * so the cost is one pass over each input. The build side should be the
+ * smaller input; it must fit in memory.
+ * <p>
+ * The output tuples are the concatenation of a child1 tuple and a child2
+ * tuple, in that order, whichever side is built.
+ */
+public class HashJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate pred;
+    private DbIterator child1;
+    private DbIterator child2;
+    private final boolean buildLeft;
+    private TupleDesc td;
+
+    private transient HashMap<Field,ArrayList<Tuple>> table;
+    /* the probe tuple being joined, and its matches not yet returned */
+    private transient Tuple probe;
+    private transient Iterator<Tuple> matches;
+    private transient Tuple reused;
+
+    /**
+     * Creates a hash join that builds its table on child2.
+     *
+     * @param p the predicate to join on; its operator must be EQUALS
+     * @param child1 the left child
+     * @param child2 the right child
+     * @throws IllegalArgumentException if the predicate is not an equality
+     */
+    public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, false);
+    }
+
+    /**
+     * Creates a hash join.
+     *
+     * @param p the predicate to join on; its operator must be EQUALS
+     * @param child1 the left child
+     * @param child2 the right child
+     * @param buildLeft true to build the table on child1 and probe with
+     *        child2, false to build on child2 and probe with child1
+     * @throws IllegalArgumentException if the predicate is not an equality
+     */
+    public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2, boolean buildLeft) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("hash join needs an equality predicate");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.buildLeft = buildLeft;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    /** @return true if the hash table is built on child1 */
+    public boolean buildsLeft() {
+        return buildLeft;
+    }
+
+    public TupleDesc getTupleDesc() {
+        if (td == null)
+            td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        return td;
+    }
+
+    private DbIterator buildChild() {
+        return buildLeft ? child1 : child2;
+    }
+
+    private DbIterator probeChild() {
+        return buildLeft ? child2 : child1;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        child1.open();
+        child2.open();
+        // the table keeps the build tuples, so reused ones are copied
+        boolean copy = Tuple.isReuseEnabled();
+        int field = buildLeft ? pred.getField1() : pred.getField2();
+        table = new HashMap<Field,ArrayList<Tuple>>();
+        DbIterator build = buildChild();
+        while (build.hasNext()) {
+            Tuple t = build.next();
+            if (copy)
+                t = t.copy();
+            ArrayList<Tuple> bucket = table.get(t.getField(field));
+            if (bucket == null) {
+                bucket = new ArrayList<Tuple>(1);
+                table.put(t.getField(field), bucket);
+            }
+            bucket.add(t);
+        }
+        probe = null;
+        matches = null;
+        reused = copy ? new Tuple(getTupleDesc()) : null;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        table = null;
+        probe = null;
+        matches = null;
+    }
+
+    /** Starts the probe side over; the hash table is kept. */
+    public void rewind() throws DbException, TransactionAbortedException {
+        probeChild().rewind();
+        probe = null;
+        matches = null;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        DbIterator probeSide = probeChild();
+        int field = buildLeft ? pred.getField2() : pred.getField1();
+        while (matches == null || !matches.hasNext()) {
+            if (!probeSide.hasNext())
+                return null;
+            probe = probeSide.next();
+            ArrayList<Tuple> bucket = table.get(probe.getField(field));
+            matches = bucket == null ? null : bucket.iterator();
+        }
+        Tuple match = matches.next();
+        return buildLeft ? joinTuples(match, probe) : joinTuples(probe, match);
+    }
+
+    private Tuple joinTuples(Tuple left, Tuple right) {
+        int n1 = left.getTupleDesc().numFields();
+        int n2 = right.getTupleDesc().numFields();
+        Tuple t = reused != null ? reused : new Tuple(getTupleDesc());
+        for (int i = 0; i < n1; i++)
+            t.setField(i, left.getField(i));
+        for (int i = 0; i < n2; i++)
+            t.setField(n1 + i, right.getField(i));
+        return t;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+        td = null;
+    }
+}
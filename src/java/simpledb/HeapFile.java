@@ -1,6 +1,9 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.*;
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -8,11 +11,22 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * Pages are read and written with positional FileChannel calls on a channel
+ * that is opened on first use and kept open until {@link #close} is called,
+ * so many threads can read pages of the same file at once without sharing a
+ * file pointer. A closed HeapFile reopens its channel on demand. Reads open
+ * the file read-only, so reading a missing file fails instead of creating
+ * it; the first write reopens it read-write.
+ * <p>
+ * Subclasses may store tuples in another page format by overriding
+ * {@link #createPage}; everything else only uses the {@link TuplePage}
+ * interface of the pages.
  *
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
-public class HeapFile implements DbFile {
+public class HeapFile implements DbFile, Closeable {
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -23,10 +37,36 @@ public class HeapFile implements DbFile {
      */
     File f;
     TupleDesc td;
+    /* bytes per page of this file */
+    final int pageSize;
+
+    /** Largest number of adjacent pages {@link #writePages} writes at once. */
+    public static final int MAX_WRITE_PAGES = 64;
+
+    /* opened lazily by channel(); not part of the serialized state */
+    private transient RandomAccessFile raf;
+    private transient volatile FileChannel channel;
+    /* true if channel was opened read-write; set after channel when it is
+       reopened for writing, so a thread that sees true sees that channel */
+    private transient volatile boolean writable;
+    /* opened lazily by freeSpace() */
+    private transient FreeSpaceMap fsm;
+
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are
+     * pageSize bytes long.
+     *
+     * @param pageSize the number of bytes per page of the file
+     */
+    public HeapFile(File f, TupleDesc td, int pageSize) {
         // some code goes here
         this.f=f;
         this.td=td;
+        this.pageSize=pageSize;
     }
 
     /**
@@ -55,6 +95,11 @@ public class HeapFile implements DbFile {
         return hashc;
     }
 
+    // see DbFile.java for javadocs
+    public int bytesPerPage() {
+        return pageSize;
+    }
+
     /**
      * Returns the TupleDesc of the table stored in this DbFile.
      *
@@ -68,40 +113,209 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
-        int offset = pid.pageNumber()*BufferPool.PAGE_SIZE;
-        int size = BufferPool.PAGE_SIZE;
-        byte[] buf = new byte[size];
-        Page p;
+        long offset = (long)pid.pageNumber()*pageSize;
+        byte[] buf = new byte[pageSize];
         try{
-            RandomAccessFile raf = new RandomAccessFile(f, "r");
-            raf.seek(offset);
-            raf.read(buf, 0, size);
-            p = new HeapPage((HeapPageId)pid, buf);
-            raf.close();
-            return p;
-        } catch (Exception e){
-            System.out.println("RandomAccessFile couldnt open");
+            readFully(ByteBuffer.wrap(buf), offset);
+            return createPage((HeapPageId)pid, buf);
+        } catch (IOException e){
+            e.printStackTrace();
         }
         return null;
     }
 
+    /**
+     * Builds a page of this file from the bytes read from disk. Subclasses
+     * that store their tuples in another page format override this; a page
+     * of all zeros must be a valid empty page of the format.
+     *
+     * @param pid the id of the page
+     * @param data the pageSize bytes of the page
+     */
+    protected TuplePage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
+    /**
+     * Fills dst from the specified file offset. Bytes past the end of the
+     * file are left as they are (zero for a fresh buffer).
+     */
+    void readFully(ByteBuffer dst, long offset) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            FileChannel ch = channel();
+            try {
+                long pos = offset + dst.position();
+                while (dst.hasRemaining()) {
+                    int n = ch.read(dst, pos);
+                    if (n < 0)
+                        break;
+                    pos += n;
+                }
+                return;
+            } catch (ClosedChannelException e) {
+                // closed under us (close() or an interrupted reader); reopen once
+                if (attempt > 0)
+                    throw e;
+                reopen(ch);
+            }
+        }
+    }
+
+    /**
+     * Writes all of src at the specified file offset.
+     */
+    void writeFully(ByteBuffer src, long offset) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            FileChannel ch = channel(true);
+            try {
+                long pos = offset + src.position();
+                while (src.hasRemaining())
+                    pos += ch.write(src, pos);
+                return;
+            } catch (ClosedChannelException e) {
+                if (attempt > 0)
+                    throw e;
+                reopen(ch);
+            }
+        }
+    }
+
+    /**
+     * Returns the channel of the backing file for reading, opening it
+     * read-only if needed.
+     *
+     * @throws FileNotFoundException if the file does not exist
+     */
+    FileChannel channel() throws IOException {
+        return channel(false);
+    }
+
+    /**
+     * Returns the channel of the backing file, opening it if needed. A
+     * channel for writing is opened read-write, which creates the file if
+     * it does not exist, and replaces a read-only channel.
+     */
+    FileChannel channel(boolean write) throws IOException {
+        boolean w = writable;
+        FileChannel ch = channel;
+        if (ch != null && (w || !write))
+            return ch;
+        synchronized (this) {
+            if (channel != null && (writable || !write))
+                return channel;
+            RandomAccessFile old = raf;
+            raf = new RandomAccessFile(f, write ? "rw" : "r");
+            if (write) {
+                channel = raf.getChannel();
+                writable = true;
+            } else {
+                writable = false;
+                channel = raf.getChannel();
+            }
+            // readers still using the old channel reopen it (see readFully)
+            if (old != null)
+                old.close();
+            return channel;
+        }
+    }
+
+    /** Forgets a channel that was found closed, unless it was replaced already. */
+    private synchronized void reopen(FileChannel stale) throws IOException {
+        if (channel == stale)
+            close();
+    }
+
+    /**
+     * Returns the free-space map of this file, opening (and if needed
+     * building) it on first use. It is stored next to the file, with the
+     * suffix ".fsm".
+     */
+    synchronized FreeSpaceMap freeSpace() throws IOException {
+        if (fsm == null)
+            fsm = new FreeSpaceMap(new File(f.getPath() + ".fsm"), this);
+        return fsm;
+    }
+
+    /**
+     * Called by the BufferPool when it drops a dirty page of this file
+     * without writing it, as when its transaction aborts. The free-space map
+     * goes back to the level of the page's before image, which is what is on
+     * disk; otherwise an aborted insert would leave the page marked full.
+     */
+    void pageDiscarded(Page page) {
+        FreeSpaceMap space;
+        synchronized (this) {
+            space = fsm;
+        }
+        if (space == null)
+            return;
+        Page before = page.getBeforeImage();
+        if (before instanceof TuplePage)
+            space.update(page.getId().pageNumber(), ((TuplePage)before).getNumEmptySlots());
+    }
+
+    /**
+     * Closes the backing file. Any later page access reopens it.
+     */
+    public synchronized void close() throws IOException {
+        if (fsm != null) {
+            fsm.close();
+            fsm = null;
+        }
+        FileChannel ch = channel;
+        channel = null;
+        writable = false;
+        RandomAccessFile old = raf;
+        raf = null;
+        if (old != null)
+            old.close();
+        else if (ch != null)
+            ch.close();
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for proj1
-        try {
-         RandomAccessFile raf = new RandomAccessFile(f, "rw");
-         PageId pid = page.getId();
-         int offset = pid.pageNumber()*BufferPool.PAGE_SIZE;
-         byte[] buf = page.getPageData();
-         raf.seek(offset);
-         raf.write(buf, 0, BufferPool.PAGE_SIZE);
-         raf.close();
-
-      } catch (IOException ex) {
-         ex.printStackTrace();
-      }
+        long offset = (long)page.getId().pageNumber()*pageSize;
+        writeFully(ByteBuffer.wrap(page.getPageData(), 0, pageSize), offset);
+        if (page instanceof TuplePage)
+            freeSpace().persist(page.getId().pageNumber(), ((TuplePage)page).getNumEmptySlots());
+    }
 
+    /**
+     * Writes several pages of this file in page-number order. Pages with
+     * consecutive page numbers are written with a single call, up to
+     * {@link #MAX_WRITE_PAGES} pages at a time.
+     *
+     * @param pages the pages to write; all of them must belong to this file
+     */
+    public void writePages(List<Page> pages) throws IOException {
+        Page[] sorted = pages.toArray(new Page[pages.size()]);
+        Arrays.sort(sorted, new Comparator<Page>() {
+            public int compare(Page a, Page b) {
+                int x = a.getId().pageNumber(), y = b.getId().pageNumber();
+                return x < y ? -1 : (x == y ? 0 : 1);
+            }
+        });
+        int start = 0;
+        while (start < sorted.length) {
+            int end = start + 1;
+            while (end < sorted.length && end - start < MAX_WRITE_PAGES
+                    && sorted[end].getId().pageNumber()
+                       == sorted[end - 1].getId().pageNumber() + 1)
+                end++;
+            ByteBuffer run = ByteBuffer.allocate((end - start) * pageSize);
+            for (int i = start; i < end; i++)
+                run.put(sorted[i].getPageData(), 0, pageSize);
+            run.flip();
+            writeFully(run, (long)sorted[start].getId().pageNumber() * pageSize);
+            for (int i = start; i < end; i++)
+                if (sorted[i] instanceof TuplePage)
+                    freeSpace().persist(sorted[i].getId().pageNumber(),
+                            ((TuplePage)sorted[i]).getNumEmptySlots());
+            start = end;
+        }
     }
 
     /**
@@ -110,46 +324,56 @@ public class HeapFile implements DbFile {
     public int numPages() {
         // some code goes here
         double filelen=f.length();
-        double num=Math.ceil(filelen/BufferPool.PAGE_SIZE);
+        double num=Math.ceil(filelen/pageSize);
         return (int)num;
     }
 
     // see DbFile.java for javadocs
+    // The free-space map points to a page with room; a new page is only
+    // appended once no page is left with room.
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         //return null;
         // not necessary for proj1
-        ArrayList<Page> pageList = new ArrayList<Page>();
-       int tableid=this.getId();
-       for (int i=0; i<this.numPages();i++){
-           HeapPageId pid= new HeapPageId(tableid,i);
-           Page page = Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-           if (((HeapPage)page).getNumEmptySlots()!=0){
-               pageList.add(page);
-               break;
-           }
-       }
-
-       if(pageList.size()==0)
-       {
-           HeapPageId pid=new HeapPageId(this.getId(), this.numPages());
-           HeapPage hp = new HeapPage(pid, HeapPage.createEmptyPageData());
-           hp.insertTuple(t);
-           this.writePage(hp);
-           pageList.add(hp);
-       }
-       else
-       {
-           Page p = pageList.get(0);
-           HeapPage hp=(HeapPage)p;
-           hp.insertTuple(t);
-           pageList.add(hp);
-       }
-
-       return pageList;
-
+        BufferPool bp = Database.getBufferPool();
+        FreeSpaceMap space = freeSpace();
+        while (true) {
+            int pgNo = space.findPageWithRoom();
+            boolean appended = pgNo < 0;
+            if (appended)
+                pgNo = appendEmptyPage();
+            HeapPageId pid = new HeapPageId(getId(), pgNo);
+            boolean locked = tid == null || bp.holdsLock(tid, pid);
+            TuplePage hp = (TuplePage)bp.getPage(tid, pid, Permissions.READ_WRITE);
+            // the side file must cover the new page before a later page's
+            // byte is written after it, or a crash leaves a hole that reads
+            // as a full page
+            if (appended)
+                space.persist(pgNo, hp.getNumEmptySlots());
+            if (hp.getNumEmptySlots() > 0) {
+                hp.insertTuple(t);
+                space.update(pgNo, hp.getNumEmptySlots());
+                ArrayList<Page> pageList = new ArrayList<Page>();
+                pageList.add(hp);
+                return pageList;
+            }
+            // the map was stale; nothing was changed, so the lock can go
+            space.update(pgNo, 0);
+            if (!locked)
+                bp.releasePage(tid, pid);
+        }
+    }
 
+    /**
+     * Writes an empty page at the end of the file.
+     * @return the number of the new page
+     */
+    protected synchronized int appendEmptyPage() throws IOException {
+        int pgNo = numPages();
+        writeFully(ByteBuffer.wrap(HeapPage.createEmptyPageData(pageSize)),
+                (long)pgNo * pageSize);
+        return pgNo;
     }
 
     // see DbFile.java for javadocs
@@ -161,8 +385,14 @@ public class HeapFile implements DbFile {
         if((t.getRecordId()==null)||(getId() != t.getRecordId().getPageId().getTableId()))
               throw new DbException("tuple cannot be found");
 
-        HeapPage hp = (HeapPage)Database.getBufferPool().getPage(tid,t.getRecordId().getPageId(),Permissions.READ_WRITE);
+        TuplePage hp = (TuplePage)Database.getBufferPool().getPage(tid,t.getRecordId().getPageId(),Permissions.READ_WRITE);
         hp.deleteTuple(t);
+        try {
+            freeSpace().update(hp.getId().pageNumber(), hp.getNumEmptySlots());
+        } catch (IOException e) {
+            // only a hint; the page can still be found by a later rebuild
+            e.printStackTrace();
+        }
         return hp;
     }
 
@@ -172,6 +402,70 @@ public class HeapFile implements DbFile {
         return new HeapFileIterator(tid,this);
     }
 
+    /**
+     * Returns an iterator over the tuples of this file that only contain
+     * the specified columns.
+     *
+     * @param columns the indexes of the columns to return, in output order
+     * @see ColumnScan
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        return new HeapFileIterator(tid, this, columns);
+    }
+
+    /**
+     * @return the TupleDesc of the specified columns of this file, in order
+     */
+    public TupleDesc project(int[] columns) {
+        Type[] types = new Type[columns.length];
+        String[] names = new String[columns.length];
+        for (int k = 0; k < columns.length; k++) {
+            types[k] = td.getFieldType(columns[k]);
+            names[k] = td.getFieldName(columns[k]);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    /**
+     * Returns an iterator over the tuples of a page of this file, with only
+     * the specified columns. This implementation decodes whole tuples and
+     * copies the columns; formats that store columns apart override it.
+     * If reuse is true the iterator may return the same Tuple object for
+     * every row (see {@link Tuple#isReuseEnabled}); formats that cannot
+     * reuse tuples ignore it.
+     *
+     * @param columns the columns to return, or null for whole tuples
+     * @param projected the TupleDesc of the specified columns
+     * @param reuse true if the returned tuples may be reused
+     */
+    protected Iterator<Tuple> tuples(TuplePage page, final int[] columns,
+            final TupleDesc projected, final boolean reuse) {
+        final Iterator<Tuple> it = reuse && page instanceof HeapPage
+                ? ((HeapPage)page).reusingIterator() : page.iterator();
+        if (columns == null)
+            return it;
+        return new Iterator<Tuple>() {
+            private final Tuple out = reuse ? new Tuple(projected) : null;
+
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            public Tuple next() {
+                Tuple full = it.next();
+                Tuple t = reuse ? out : new Tuple(projected);
+                for (int k = 0; k < columns.length; k++)
+                    t.setField(k, full.getField(columns[k]));
+                t.setRecordId(full.getRecordId());
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
 }
 
 class HeapFileIterator implements DbFileIterator{
@@ -179,24 +473,41 @@ class HeapFileIterator implements DbFileIterator{
   private TransactionId tid = null;
   private HeapFile f = null;
   private int pgNo = 0;
+  private ReadAhead.Stream readAhead;
+  private boolean largeScan;
+  /* the columns to return, or null for whole tuples */
+  private int[] columns;
+  private TupleDesc projected;
+  /* hand out one reused tuple per page; fixed when the iterator is opened */
+  private boolean reuse;
 
   public HeapFileIterator(TransactionId tid , HeapFile f){
+    this(tid, f, null);
+  }
+
+  public HeapFileIterator(TransactionId tid, HeapFile f, int[] columns){
     this.tid = tid;
     this.f = f;
+    this.readAhead = new ReadAhead.Stream(f);
+    this.columns = columns;
+    this.projected = columns == null ? null : f.project(columns);
   }
 
   public void open() throws DbException, TransactionAbortedException{
     pgNo = 0;
+    reuse = Tuple.isReuseEnabled();
+    largeScan = Database.getBufferPool().isLargeScan(f.numPages(), f.bytesPerPage());
+    readAhead.pageRequested(pgNo);
     PageId pgId = new HeapPageId(f.getId(), pgNo);
-    Page page = Database.getBufferPool().getPage(tid,pgId,Permissions.READ_ONLY);
-    HeapPage heapPage = (HeapPage)page;
+    Page page = Database.getBufferPool().getPage(tid,pgId,Permissions.READ_ONLY,largeScan);
+    TuplePage heapPage = (TuplePage)page;
     /*if(heapPage == null)
     System.out.println("*****");
     if(page ==null)
     System.out.println("####");
     if(pgId == null)
     System.out.println("$$$$");*/
-    tupIt = heapPage.iterator();
+    tupIt = f.tuples(heapPage, columns, projected, reuse);
 
   }
 
@@ -210,10 +521,11 @@ class HeapFileIterator implements DbFileIterator{
             if(pgNo>=f.numPages()-1)
                 return false;
             else{
+                readAhead.pageRequested(pgNo+1);
                 PageId pgId = new HeapPageId(f.getId(), pgNo+1);
-                HeapPage heappage = (HeapPage)Database.getBufferPool().getPage(tid,pgId,Permissions.READ_ONLY);
+                TuplePage heappage = (TuplePage)Database.getBufferPool().getPage(tid,pgId,Permissions.READ_ONLY,largeScan);
 
-                return heappage.iterator().hasNext();
+                return f.tuples(heappage, columns, projected, reuse).hasNext();
             }
         }
     }
@@ -227,15 +539,16 @@ class HeapFileIterator implements DbFileIterator{
             return tupIt.next();
         else
         {
+            readAhead.pageRequested(pgNo+1);
             PageId pgId = new HeapPageId(f.getId(), pgNo+1);
-            Page page = Database.getBufferPool().getPage(tid,pgId,Permissions.READ_ONLY);
-            HeapPage heappage = (HeapPage)page;
+            Page page = Database.getBufferPool().getPage(tid,pgId,Permissions.READ_ONLY,largeScan);
+            TuplePage heappage = (TuplePage)page;
 
             if (page!=null)
-                if (heappage.iterator().hasNext())
+                if (f.tuples(heappage, columns, projected, reuse).hasNext())
                 {
                     pgNo++;
-                    tupIt = heappage.iterator();
+                    tupIt = f.tuples(heappage, columns, projected, reuse);
                     return tupIt.next();
                 }
             throw new NoSuchElementException();
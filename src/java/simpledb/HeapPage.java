@@ -2,33 +2,56 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 //import simpledb.TupleDesc.*;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A HeapPage keeps the page in its on-disk format in a single buffer and
+ * decodes nothing up front. Tuples are fixed width, so the iterator hands out
+ * tuples that decode a field from its fixed offset the first time it is
+ * asked for.
+ * <p>
+ * The buffer is copied on write: the buffer a page was built from, a before
+ * image, and the buffer seen by tuples already handed out are never changed.
+ * The first change after any of those was shared copies the page into a
+ * private array.
  *
  * @see HeapFile
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     HeapPageId pid;
     TupleDesc td;
-    byte header[];
-    Tuple tuples[];
+    /* bytes per page; the length of the data the page was built from */
+    final int pageSize;
     int numSlots;
-
-    byte[] oldData;
+    int headerSize;
+    /* offset of each field inside a tuple */
+    int[] fieldOffsets;
+
+    /* the page, in its on-disk format; index 0 is the first header byte */
+    ByteBuffer data;
+    /* true if data may be seen by somebody else and must not be written */
+    volatile boolean shared;
+
+    /* bytes of the before image; null if the current contents are the
+       before image and have to be saved before they are first changed */
+    ByteBuffer oldData;
     TransactionId dirtyTid;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
+     * The page size is the length of data, usually
+     * {@link BufferPool#PAGE_SIZE}, or the page size of the table's file.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.PAGE_SIZE*8) / (tuple size * 8 + 1))
+     *          floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
      * database table, which can be determined via {@link Catalog#getTupleDesc}.
      * The number of 8-bit header words is equal to:
@@ -40,27 +63,39 @@ public class HeapPage implements Page {
      * @see BufferPool#PAGE_SIZE
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding the page in the format
+     * described above, for example a slice of a memory-mapped file. The page
+     * uses the buffer in place, without copying it; the buffer's position and
+     * limit are not changed, and the page size is the buffer's capacity. The
+     * buffer is also the before image of the page, so it must not be
+     * modified afterwards, unless the page is first moved off it with
+     * {@link #detach}.
+     *
+     * @see MappedHeapFile
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = data.capacity();
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-
-        try{
-            // allocate and read the actual records of this page
-            tuples = new Tuple[numSlots];
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        this.headerSize = getHeaderSize();
+        if (numSlots == 0)
+            throw new IOException("page data too short: " + pageSize + " bytes");
+
+        fieldOffsets = new int[td.numFields()];
+        int offset = 0;
+        for (int j=0; j<fieldOffsets.length; j++) {
+            fieldOffsets[j] = offset;
+            offset += td.getFieldType(j).getLen();
         }
-        dis.close();
 
-      setBeforeImage();
+        this.data = data;
+        this.shared = true;
+        this.oldData = data;
     }
 
     /** Retrieve the number of tuples on this page.
@@ -69,10 +104,10 @@ public class HeapPage implements Page {
     private int getNumTuples() {
         // some code goes here
         int numTuples = 0;
-        double pageSize = (double)BufferPool.PAGE_SIZE*8;
+        double pageBits = (double)pageSize*8;
         //System.out.println(td.getSize() + "$#***");
         double tupleSize = (double)(td.getSize() * 8 + 1);
-        numTuples = (int)Math.floor(pageSize/tupleSize);
+        numTuples = (int)Math.floor(pageBits/tupleSize);
         return numTuples;
 
     }
@@ -94,7 +129,12 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            return new HeapPage(pid,oldData);
+            ByteBuffer before = oldData;
+            if (before == null) {
+                before = data;
+                shared = true;
+            }
+            return new HeapPage(pid,before);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -103,8 +143,53 @@ public class HeapPage implements Page {
         return null;
     }
 
+    /**
+     * Makes the current contents of this page its before image. Nothing is
+     * copied until the page is next changed.
+     */
     public void setBeforeImage() {
-        oldData = getPageData().clone();
+        oldData = null;
+    }
+
+    /**
+     * Prepares the buffer for a change: saves the before image if it is
+     * still the current contents, and copies the buffer if it is shared.
+     * Called before every change to this page.
+     */
+    private void beforeChange() {
+        if (oldData == null) {
+            oldData = data;
+            shared = true;
+        }
+        if (shared) {
+            data = copyOf(data);
+            shared = false;
+        }
+    }
+
+    private ByteBuffer copyOf(ByteBuffer buf) {
+        byte[] copy = new byte[pageSize];
+        ByteBuffer src = buf.duplicate();
+        src.clear();
+        src.get(copy);
+        return ByteBuffer.wrap(copy);
+    }
+
+    /**
+     * Copies the page and its before image off a direct buffer, such as a
+     * file mapping, that is about to be overwritten. Tuples this page has
+     * already handed out keep reading the old buffer.
+     */
+    void detach() {
+        if (oldData != null && oldData != data && oldData.isDirect())
+            oldData = copyOf(oldData);
+        if (data.isDirect()) {
+            ByteBuffer copy = copyOf(data);
+            if (oldData == data)
+                oldData = copy;
+            data = copy;
+            shared = false;
+        }
     }
 
     /**
@@ -116,38 +201,111 @@ public class HeapPage implements Page {
       return pid;
     }
 
+    /** @return the offset of the first byte of the specified slot */
+    private int slotOffset(int slotId) {
+        return headerSize + slotId * td.getSize();
+    }
+
+    /**
+     * A tuple stored on a HeapPage. Its fields are decoded from the page
+     * buffer the first time they are read; the buffer is one the page will
+     * not write to any more.
+     */
+    private static class PageTuple extends Tuple {
+        private static final long serialVersionUID = 1L;
+
+        private final transient ByteBuffer data;
+        private final transient int offset;
+        private final transient int[] fieldOffsets;
+
+        PageTuple(TupleDesc td, ByteBuffer data, int offset, int[] fieldOffsets) {
+            super(td);
+            this.data = data;
+            this.offset = offset;
+            this.fieldOffsets = fieldOffsets;
+        }
+
+        public Field getField(int i) {
+            Field f = super.getField(i);
+            if (f == null) {
+                f = getTupleDesc().getFieldType(i).parse(data, offset + fieldOffsets[i]);
+                super.setField(i, f);
+            }
+            return f;
+        }
+
+        /** Serializes as a plain Tuple, since the page buffer is not kept. */
+        private Object writeReplace() {
+            Tuple t = new Tuple(getTupleDesc());
+            for (int i = 0; i < getTupleDesc().numFields(); i++)
+                t.setField(i, getField(i));
+            t.setRecordId(getRecordId());
+            return t;
+        }
+    }
+
     /**
-     * Suck up tuples from the source file.
+     * The tuple a reusing iterator hands out for every used slot of a page.
+     * It is moved from slot to slot, and decodes int fields into IntFields
+     * it owns, so reading a row allocates nothing. Its RecordId is made
+     * when it is asked for.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
+    private static class ReusedTuple extends Tuple {
+        private static final long serialVersionUID = 1L;
+
+        private final transient ByteBuffer data;
+        private final transient int[] fieldOffsets;
+        private final transient HeapPageId pid;
+        private final transient IntField[] ints;
+        private transient int offset;
+        private transient int slot;
+
+        ReusedTuple(TupleDesc td, ByteBuffer data, int[] fieldOffsets, HeapPageId pid) {
+            super(td);
+            this.data = data;
+            this.fieldOffsets = fieldOffsets;
+            this.pid = pid;
+            this.ints = new IntField[td.numFields()];
+        }
+
+        void moveTo(int slot, int offset) {
+            this.slot = slot;
+            this.offset = offset;
+            for (int i = 0; i < ints.length; i++)
+                super.setField(i, null);
+            super.setRecordId(null);
+        }
+
+        public Field getField(int i) {
+            Field f = super.getField(i);
+            if (f == null) {
+                Type type = getTupleDesc().getFieldType(i);
+                if (type == Type.INT_TYPE) {
+                    if (ints[i] == null)
+                        ints[i] = new IntField(0);
+                    ints[i].setValue(data.getInt(offset + fieldOffsets[i]));
+                    f = ints[i];
+                } else {
+                    f = type.parse(data, offset + fieldOffsets[i]);
                 }
+                super.setField(i, f);
             }
-            return null;
+            return f;
         }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+        public RecordId getRecordId() {
+            RecordId rid = super.getRecordId();
+            if (rid == null) {
+                rid = new RecordId(pid, slot);
+                super.setRecordId(rid);
             }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+            return rid;
         }
 
-        return t;
+        /** Serializes as a plain Tuple, since the page buffer is not kept. */
+        private Object writeReplace() {
+            return copy();
+        }
     }
 
     /**
@@ -162,64 +320,11 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        byte[] out = new byte[pageSize];
+        ByteBuffer src = data.duplicate();
+        src.clear();
+        src.get(out);
+        return out;
     }
 
     /**
@@ -232,8 +337,16 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        return new byte[len]; //all 0
+        return createEmptyPageData(BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Generates the bytes of an empty HeapPage of the specified size.
+     *
+     * @param pageSize the number of bytes per page
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
     }
 
     /**
@@ -248,9 +361,14 @@ public class HeapPage implements Page {
         // not necessary for lab1
         int tupleNo = t.getRecordId().tupleno();
         if(t.getRecordId().getPageId().equals(pid)){
-          if(isSlotUsed(tupleNo))
+          if(tupleNo >= 0 && tupleNo < numSlots && isSlotUsed(tupleNo))
             {
+               beforeChange();
                markSlotUsed(tupleNo,false);
+               // empty slots are stored as zeroes
+               int offset = slotOffset(tupleNo);
+               for (int i=0; i<td.getSize(); i++)
+                   data.put(offset + i, (byte)0);
             }
             else
                 throw new DbException("Tuple slot is empty");
@@ -270,25 +388,43 @@ public class HeapPage implements Page {
     public void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
-        if(getNumEmptySlots()==0)
-           throw new DbException("the page is full");
        if(!t.getTupleDesc().equals(td))
            throw new DbException("TupleDesc does not match");
 
-       for(int i=0;i<tuples.length;++i)
+       for(int i=0;i<numSlots;++i)
        {
            if(!isSlotUsed(i))
            {
-               tuples[i] = t;
+               byte[] bytes = encode(t);
+               beforeChange();
+               ByteBuffer dst = data.duplicate();
+               dst.clear();
+               dst.position(slotOffset(i));
+               dst.put(bytes);
                markSlotUsed(i,true);
 
                RecordId recordId = new RecordId(pid,i);
                t.setRecordId(recordId);
-               break;
-
+               return;
            }
        }
+       throw new DbException("the page is full");
+    }
 
+    /** @return the fields of t in their on-disk format */
+    private byte[] encode(Tuple t) throws DbException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j=0; j<td.numFields(); j++)
+                t.getField(j).serialize(dos);
+            dos.flush();
+        } catch (IOException e) {
+            throw new DbException("could not encode tuple: " + e.getMessage());
+        }
+        if (baos.size() != td.getSize())
+            throw new DbException("tuple does not fit its slot");
+        return baos.toByteArray();
     }
 
     /**
@@ -320,14 +456,10 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
-
-        int count = 0;
-        for(int i=0;i<tuples.length;i++){
-          if(!(isSlotUsed(i))){
-            count++;
-          }
-        }
-        return count;
+        int used = 0;
+        for (int a = 0; a < headerSize; a++)
+            used += Integer.bitCount(data.get(a) & 0xff);
+        return numSlots - used;
     }
 
     /**
@@ -337,7 +469,7 @@ public class HeapPage implements Page {
         // some code goes here
         int a = i/8;
         int b = i%8;
-        return (((header[a] >> b) & 1) == 1);
+        return (((data.get(a) >> b) & 1) == 1);
     }
 
     /**
@@ -352,9 +484,9 @@ public class HeapPage implements Page {
         byte x = (byte)(1 << b);
 
         if (value)
-            header[a] |= x;
+            data.put(a, (byte)(data.get(a) | x));
         else
-          header[a] &= ~x;
+            data.put(a, (byte)(data.get(a) & ~x));
     }
 
     /**
@@ -363,14 +495,111 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        ArrayList<Tuple> tuplesOnPage = new ArrayList<Tuple>();
-        for(Tuple tp: tuples){
-          if(tp!=null){
-            tuplesOnPage.add(tp);
-          }
+        // the tuples read from this buffer; a later change must copy it
+        shared = true;
+        final ByteBuffer buf = data;
+        return new Iterator<Tuple>() {
+            private int next = advance(0);
+
+            private int advance(int from) {
+                while (from < numSlots && !isUsed(from))
+                    from++;
+                return from;
+            }
+
+            private boolean isUsed(int i) {
+                return ((buf.get(i / 8) >> (i % 8)) & 1) == 1;
+            }
+
+            public boolean hasNext() {
+                return next < numSlots;
+            }
+
+            public Tuple next() {
+                if (next >= numSlots)
+                    throw new NoSuchElementException();
+                Tuple t = new PageTuple(td, buf, slotOffset(next), fieldOffsets);
+                t.setRecordId(new RecordId(pid, next));
+                next = advance(next + 1);
+                return t;
+            }
 
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Appends the tuples in the used slots from slot from on to a batch,
+     * decoding them straight from the page buffer, until the batch is full
+     * or the page is done.
+     *
+     * @param from the first slot to read
+     * @param batch a batch with this page's TupleDesc
+     * @return the slot to continue from; numSlots if the page is done
+     */
+    int fillBatch(int from, TupleBatch batch) {
+        ByteBuffer buf = data;
+        int n = batch.size();
+        int capacity = batch.capacity();
+        int numFields = fieldOffsets.length;
+        while (from < numSlots && n < capacity) {
+            if (((buf.get(from / 8) >> (from % 8)) & 1) == 1) {
+                int offset = slotOffset(from);
+                for (int j = 0; j < numFields; j++) {
+                    int[] ints = batch.ints(j);
+                    if (ints != null)
+                        ints[n] = buf.getInt(offset + fieldOffsets[j]);
+                    else
+                        batch.strings(j)[n] = ((StringField)td.getFieldType(j)
+                                .parse(buf, offset + fieldOffsets[j])).getValue();
+                }
+                n++;
+            }
+            from++;
         }
-        return tuplesOnPage.iterator();
+        batch.setSizeAndSelectAll(n);
+        return from;
+    }
+
+    /**
+     * Returns an iterator over all tuples on this page that returns the same
+     * Tuple object for every slot, moved to the slot's contents. A returned
+     * tuple is only valid until the next call to next().
+     *
+     * @see Tuple#isReuseEnabled
+     */
+    public Iterator<Tuple> reusingIterator() {
+        // the tuples read from this buffer; a later change must copy it
+        shared = true;
+        final ByteBuffer buf = data;
+        final ReusedTuple t = new ReusedTuple(td, buf, fieldOffsets, pid);
+        return new Iterator<Tuple>() {
+            private int next = advance(0);
+
+            private int advance(int from) {
+                while (from < numSlots && ((buf.get(from / 8) >> (from % 8)) & 1) == 0)
+                    from++;
+                return from;
+            }
+
+            public boolean hasNext() {
+                return next < numSlots;
+            }
+
+            public Tuple next() {
+                if (next >= numSlots)
+                    throw new NoSuchElementException();
+                t.moveTo(next, slotOffset(next));
+                next = advance(next + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 
 }
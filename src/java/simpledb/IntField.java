@@ -24,6 +24,16 @@ public class IntField implements Field {
         value = i;
     }
 
+    /**
+     * Changes the value of this field. Only used on the fields of a reused
+     * tuple, which nothing keeps past the next row.
+     *
+     * @see Tuple#copy
+     */
+    void setValue(int i) {
+        value = i;
+    }
+
     public String toString() {
         return Integer.toString(value);
     }
@@ -28,10 +28,11 @@ public class IntegerAggregator implements Aggregator {
     private Type mgbfieldtype;
     private Op mop;
 
-    // Since gfield = null wont have two parameters we use different data structes
+    // one running accumulator per group, so memory is proportional to the
+    // number of groups rather than the number of tuples
 
-    HashMap<Field,ArrayList<Field>> withgrouping;
-    ArrayList<Field> nogrouping;
+    HashMap<Field,Accumulator> withgrouping;
+    Accumulator nogrouping;
 
 
     public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
@@ -41,9 +42,9 @@ public class IntegerAggregator implements Aggregator {
         mafield = afield;
         mop=what;
         if(mgbfield==Aggregator.NO_GROUPING)
-            nogrouping=new ArrayList<Field>();
+            nogrouping=new Accumulator();
         else
-            withgrouping= new HashMap<Field,ArrayList<Field>>();
+            withgrouping= new HashMap<Field,Accumulator>();
 
 
     }
@@ -58,93 +59,80 @@ public class IntegerAggregator implements Aggregator {
     
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
+        int value = ((IntField)tup.getField(mafield)).getValue();
         if(mgbfield==NO_GROUPING)
-            nogrouping.add(tup.getField(mafield));
+            nogrouping.add(value);
         else{
 
             Field groupvalue=tup.getField(mgbfield);
-            Field aggregatevalue=tup.getField(mafield);
-            ArrayList<Field> agglist= withgrouping.get(groupvalue);
-            if(agglist==null){
-                agglist=new ArrayList<Field>();
-                agglist.add(aggregatevalue);
+            Accumulator acc= withgrouping.get(groupvalue);
+            if(acc==null){
+                // the key is kept; a reused IntField would change under it
+                if (Tuple.isReuseEnabled() && groupvalue instanceof IntField)
+                    groupvalue = new IntField(((IntField)groupvalue).getValue());
+                acc=new Accumulator();
+                withgrouping.put(groupvalue,acc);
             }
-            else
-                agglist.add(aggregatevalue);
-            withgrouping.put(groupvalue,agglist);
+            acc.add(value);
 
         }         
     }
 
     /**
-     * Create a DbIterator over group aggregate results.
-     * 
-     * @return a DbIterator whose tuples are the pair (groupVal, aggregateVal)
-     *         if using group, or a single (aggregateVal) if no grouping. The
-     *         aggregateVal is determined by the type of aggregate specified in
-     *         the constructor.
+     * The running state of one group: the count and sum as longs, so they
+     * do not overflow, and the smallest and largest values seen.
      */
-    // performing aggregate functions like COUNT,ADD,MIN,MAX
-    private int aggfunctions(ArrayList<Field> aggfunclist){
-        int answer;
-        Iterator<Field> aggiterate = aggfunclist.iterator();
-        if(mop==Op.COUNT)
-            answer=aggfunclist.size();
-        else if(mop==Op.SUM){
-            int sum=0;
-            while(aggiterate.hasNext()){
-                IntField x = (IntField) aggiterate.next();
-                sum=sum + x.getValue();
-
-            }
-            answer=sum;
+    static class Accumulator implements java.io.Serializable {
+        private static final long serialVersionUID = 1L;
+
+        long count;
+        long sum;
+        int min;
+        int max;
+
+        void add(int value) {
+            if (count == 0 || value < min)
+                min = value;
+            if (count == 0 || value > max)
+                max = value;
+            count++;
+            sum += value;
         }
-        else if(mop==Op.AVG){
-            int sum=0;
-            int avg=0;
-            while(aggiterate.hasNext()){
-                IntField x = (IntField) aggiterate.next();
-                sum=sum + x.getValue();
 
+        /**
+         * Returns the value of the specified aggregate; SUM keeps only the
+         * low 32 bits, like an int sum.
+         */
+        int result(Op op) {
+            switch (op) {
+            case COUNT: return (int)count;
+            case SUM: return (int)sum;
+            case AVG: return (int)(sum / count);
+            case MIN: return min;
+            default: return max;
             }
-            if(aggfunclist.size()!=0)
-                avg=sum/aggfunclist.size();
-            answer=avg;
         }
-        else if(mop==Op.MAX){
-            int maxval= -999999;
-            while(aggiterate.hasNext())
-            {
-                IntField x = (IntField) aggiterate.next();
-                if(x.getValue()>maxval)
-                    maxval=x.getValue();
-            }
-            answer=maxval;
-        }
-        else {
-            int minval=999999;
-            while(aggiterate.hasNext())
-            {
-                IntField x = (IntField) aggiterate.next();
-                if(x.getValue()<minval)
-                    minval=x.getValue();
-            }
-            answer=minval;
-        }
-        return answer;
     }
-        
 
+    /**
+     * Create a DbIterator over group aggregate results.
+     * 
+     * @return a DbIterator whose tuples are the pair (groupVal, aggregateVal)
+     *         if using group, or a single (aggregateVal) if no grouping. The
+     *         aggregateVal is determined by the type of aggregate specified in
+     *         the constructor. Without grouping and with no tuples merged,
+     *         COUNT and SUM are 0, and MIN, MAX and AVG have no value, so no
+     *         tuple is returned.
+     */
  public DbIterator iterator() {
         if(mgbfield == Aggregator.NO_GROUPING){
-            int aggresult = aggfunctions(nogrouping);
-
             TupleDesc desc = new TupleDesc(new Type[]{Type.INT_TYPE});
-            Tuple t = new Tuple(desc);
-            t.setField(0, new IntField(aggresult));
-
             ArrayList<Tuple> finalans = new ArrayList<Tuple>();
-            finalans.add(t);
+            if (nogrouping.count > 0 || mop == Op.COUNT || mop == Op.SUM) {
+                Tuple t = new Tuple(desc);
+                t.setField(0, new IntField(nogrouping.result(mop)));
+                finalans.add(t);
+            }
             return new TupleIterator(desc,finalans);
         }
 
@@ -152,20 +140,14 @@ public class IntegerAggregator implements Aggregator {
             ArrayList<Tuple> finalans = new ArrayList<Tuple>();
             TupleDesc desc = new TupleDesc(new Type[]{mgbfieldtype, Type.INT_TYPE});
 
-            Collection<Field> keys = withgrouping.keySet();
-            Iterator<Field> keyiter = keys.iterator();
-            while(keyiter.hasNext()){
-                Field val = keyiter.next();
-                ArrayList<Field> valuesList = withgrouping.get(val);
-                int aggResult = aggfunctions(valuesList);
-
+            for (Map.Entry<Field,Accumulator> e : withgrouping.entrySet()) {
                 Tuple t = new Tuple(desc);
-                t.setField(0, val);
-                t.setField(1, new IntField(aggResult));
+                t.setField(0, e.getKey());
+                t.setField(1, new IntField(e.getValue().result(mop)));
                 finalans.add(t);
             }
 
             return new TupleIterator(desc,finalans);
         }
 }
-}
\ No newline at end of file
+}
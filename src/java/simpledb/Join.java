@@ -12,6 +12,10 @@ public class Join extends Operator {
     private DbIterator m_child1;
     private DbIterator m_child2;
     private Tuple m_currentLeftTuple;
+    /* the merged TupleDesc of the children, computed once */
+    private TupleDesc m_td;
+    /* the output tuple overwritten for every row when tuples are reused */
+    private Tuple m_reused;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -63,7 +67,9 @@ public class Join extends Operator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return TupleDesc.merge(m_child1.getTupleDesc(), m_child2.getTupleDesc());
+        if (m_td == null)
+            m_td = TupleDesc.merge(m_child1.getTupleDesc(), m_child2.getTupleDesc());
+        return m_td;
     }
 
     public void open() throws DbException, NoSuchElementException,
@@ -72,6 +78,7 @@ public class Join extends Operator {
     	super.open();
     	m_child1.open();
     	m_child2.open();
+    	m_reused = Tuple.isReuseEnabled() ? new Tuple(getTupleDesc()) : null;
     }
 
     public void close() {
@@ -141,7 +148,7 @@ public class Join extends Operator {
     {
 		int leftTupleSize = leftTuple.getTupleDesc().numFields();
 		int rightTupleSize = rightTuple.getTupleDesc().numFields();
-		Tuple mergedTuple = new Tuple(this.getTupleDesc());
+		Tuple mergedTuple = m_reused != null ? m_reused : new Tuple(this.getTupleDesc());
 		for (int i = 0; i < leftTupleSize; i++)
 		{
 			mergedTuple.setField(i, leftTuple.getField(i));
@@ -165,6 +172,7 @@ public class Join extends Operator {
         // some code goes here
     	m_child1 = children[0];
     	m_child2 = children[1];
+    	m_td = null;
     }
 
 }
@@ -44,6 +44,51 @@ public class JoinOptimizer {
      */
     public static DbIterator instantiateJoin(LogicalJoinNode lj,
             DbIterator plan1, DbIterator plan2) throws ParsingException {
+        return instantiateJoin(lj, plan1, plan2, -1, -1);
+    }
+
+    /**
+     * Return the best iterator for computing a given logical join. Equality
+     * joins use a {@link HashJoin} built on the input with the smaller
+     * estimated cardinality (plan2 if either is unknown), or a
+     * {@link GraceHashJoin} if that input is not known to fit in the join
+     * memory budget on the heap (see {@link GraceHashJoin#budgetTuples}).
+     * Large equality joins whose inputs both fit use a
+     * {@link ParallelHashJoin} if there is more than one processor. Other
+     * joins use a {@link BlockNestedLoopJoin} sized from the join memory
+     * budget.
+     *
+     * @param lj
+     *            The join being considered
+     * @param plan1
+     *            The left join node's child
+     * @param plan2
+     *            The right join node's child
+     * @param card1
+     *            Estimated cardinality of plan1, or -1 if unknown
+     * @param card2
+     *            Estimated cardinality of plan2, or -1 if unknown
+     */
+    public static DbIterator instantiateJoin(LogicalJoinNode lj,
+            DbIterator plan1, DbIterator plan2, int card1, int card2)
+            throws ParsingException {
+        return instantiateJoin(lj, plan1, plan2, card1, card2, false);
+    }
+
+    /**
+     * Return the best iterator for computing a given logical join, as
+     * above, except that a {@link SortMergeJoin} is used if the output must
+     * be in order of the left join field, or if both inputs are already
+     * sorted on their join fields. Callers should only ask for ordered
+     * output when {@link #sortMergeForOrder} says it pays off.
+     *
+     * @param ordered
+     *            true if the output must be in ascending order of the left
+     *            join field
+     */
+    public static DbIterator instantiateJoin(LogicalJoinNode lj,
+            DbIterator plan1, DbIterator plan2, int card1, int card2,
+            boolean ordered) throws ParsingException {
 
         int t1id = 0, t2id = 0;
         DbIterator j;
@@ -68,7 +113,29 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        boolean sorted = SortMergeJoin.isSortedOn(plan1, t1id)
+                && SortMergeJoin.isSortedOn(plan2, t2id);
+        if ((ordered || sorted) && lj.p != Predicate.Op.LIKE) {
+            j = new SortMergeJoin(p, plan1, plan2);
+        } else if (lj.p == Predicate.Op.EQUALS) {
+            boolean buildLeft = card1 >= 0 && card2 >= 0 && card1 < card2;
+            int buildCard = buildLeft ? card1 : card2;
+            DbIterator buildPlan = buildLeft ? plan1 : plan2;
+            int budget = GraceHashJoin.budgetTuples(buildPlan.getTupleDesc());
+            // the parallel join holds both inputs in memory
+            if (card1 >= 0 && card2 >= 0
+                    && (long)card1 + card2 >= ParallelHashJoin.MIN_TUPLES
+                    && ParallelHashJoin.NUM_THREADS > 1
+                    && (double)card1 / GraceHashJoin.budgetTuples(plan1.getTupleDesc())
+                        + (double)card2 / GraceHashJoin.budgetTuples(plan2.getTupleDesc()) <= 1)
+                j = new ParallelHashJoin(p, plan1, plan2, buildLeft);
+            else if (buildCard >= 0 && buildCard <= budget)
+                j = new HashJoin(p, plan1, plan2, buildLeft);
+            else
+                j = new GraceHashJoin(p, plan1, plan2, buildLeft, 0);
+        } else {
+            j = new BlockNestedLoopJoin(p, plan1, plan2);
+        }
 
         return j;
 
@@ -111,8 +178,101 @@ public class JoinOptimizer {
             // HINT: You may need to use the variable "j" if you implemented
             // a join algorithm that's more complicated than a basic
             // nested-loops join.
-            return -1.0;
+            if (j.p == Predicate.Op.EQUALS) {
+                // hash join: one scan of each input, one insert per build
+                // tuple and one lookup per probe tuple; the part of the
+                // build side over the join memory budget is spilled, with
+                // the matching part of the probe side, written once and read
+                // once more
+                double cost = cost1 + cost2 + card1 + card2;
+                int build = Math.min(card1, card2);
+                int budget = GraceHashJoin.budgetTuples(outerTupleDesc(j));
+                if (build > budget)
+                    cost += 2 * (cost1 + cost2) * (1 - (double)budget / build);
+                return cost;
+            }
+            // block nested loops: the inner input is scanned once per block
+            // of outer tuples held in the join memory budget
+            int block = GraceHashJoin.budgetTuples(outerTupleDesc(j));
+            double blocks = Math.max(1, Math.ceil((double)card1 / block));
+            return cost1 + blocks * cost2 + (double)card1 * card2;
+        }
+    }
+
+    /**
+     * Estimate the cost of a {@link SortMergeJoin}, in the same terms as
+     * {@link #estimateJoinCost}: one scan of each input, an in-memory sort
+     * of each input that is not already sorted on its join field, and one
+     * comparison per input tuple to merge them.
+     *
+     * @param sorted1
+     *            true if the left-hand input is already sorted on its join
+     *            field
+     * @param sorted2
+     *            true if the right-hand input is already sorted on its join
+     *            field
+     */
+    public double estimateSortMergeCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean sorted1, boolean sorted2) {
+        double cost = cost1 + cost2 + card1 + card2;
+        if (!sorted1)
+            cost += sortCost(card1);
+        if (!sorted2)
+            cost += sortCost(card2);
+        return cost;
+    }
+
+    /** @return the number of comparisons to sort card tuples */
+    static double sortCost(int card) {
+        return card <= 1 ? 0 : card * (Math.log(card) / Math.log(2));
+    }
+
+    /**
+     * Decides whether a join whose output must be in ascending order of its
+     * left join field should be a {@link SortMergeJoin}, so that no sort of
+     * its output is needed. The sort-merge join must beat the join
+     * {@link #instantiateJoin} would otherwise pick followed by a sort of its
+     * output, and every input it has to sort or buffer on the heap must be
+     * known to fit in the join memory budget. Both plans read each input
+     * once, so each input tuple read is costed as 1.
+     *
+     * @param outCard
+     *            estimated cardinality of the join output, or -1 if unknown
+     * @return false if any cardinality is unknown
+     */
+    public boolean sortMergeForOrder(LogicalJoinNode j, DbIterator plan1,
+            DbIterator plan2, int card1, int card2, int outCard) {
+        if (card1 < 0 || card2 < 0 || outCard < 0 || j.p == Predicate.Op.LIKE)
+            return false;
+        boolean sorted1, sorted2;
+        try {
+            sorted1 = SortMergeJoin.isSortedOn(plan1,
+                    plan1.getTupleDesc().fieldNameToIndex(j.f1QuantifiedName));
+            sorted2 = SortMergeJoin.isSortedOn(plan2,
+                    plan2.getTupleDesc().fieldNameToIndex(j.f2QuantifiedName));
+        } catch (NoSuchElementException e) {
+            return false;
         }
+        // an OrderBy holds its whole input, and a non-equality merge holds
+        // all of child2
+        if (!sorted1 && card1 > GraceHashJoin.budgetTuples(plan1.getTupleDesc()))
+            return false;
+        if ((!sorted2 || j.p != Predicate.Op.EQUALS)
+                && card2 > GraceHashJoin.budgetTuples(plan2.getTupleDesc()))
+            return false;
+        return estimateSortMergeCost(j, card1, card2, card1, card2, sorted1, sorted2)
+                <= estimateJoinCost(j, card1, card2, card1, card2) + sortCost(outCard);
+    }
+
+    /**
+     * Returns the TupleDesc of the left-hand table of the specified join, or
+     * of a single integer if the table is not known.
+     */
+    private TupleDesc outerTupleDesc(LogicalJoinNode j) {
+        Integer id = p == null ? null : p.getTableId(j.t1Alias);
+        if (id == null)
+            return new TupleDesc(new Type[] { Type.INT_TYPE });
+        return Database.getCatalog().getTupleDesc(id);
     }
 
     /**
@@ -157,6 +317,22 @@ public class JoinOptimizer {
             Map<String, Integer> tableAliasToId) {
         int card = 1;
         // some code goes here
+        if (joinOp == Predicate.Op.EQUALS) {
+            // each tuple matches at most one primary key value
+            if (t1pkey && t2pkey)
+                card = Math.min(card1, card2);
+            else if (t1pkey)
+                card = card2;
+            else if (t2pkey)
+                card = card1;
+            else
+                card = Math.max(card1, card2);
+        } else if (joinOp == Predicate.Op.NOT_EQUALS) {
+            card = (int)Math.min(Integer.MAX_VALUE, (long)card1 * card2);
+        } else {
+            // range predicates keep a fixed fraction of the cross product
+            card = (int)Math.min(Integer.MAX_VALUE, 0.3 * card1 * card2);
+        }
         return card <= 0 ? 1 : card;
     }
 
@@ -398,11 +574,11 @@ public class JoinOptimizer {
      * @param field
      *            The pure name of the field
      */
-    private boolean isPkey(String tableAlias, String field) {
+    boolean isPkey(String tableAlias, String field) {
         int tid1 = p.getTableId(tableAlias);
         String pkey1 = Database.getCatalog().getPrimaryKey(tid1);
 
-        return pkey1.equals(field);
+        return field.equals(pkey1);
     }
 
     /**
@@ -0,0 +1,51 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram counts durations in buckets whose bounds are powers of
+ * two nanoseconds: bucket i holds the durations d with 2^i <= d < 2^(i+1)
+ * (bucket 0 also holds 0 and 1 ns), and the last bucket holds everything
+ * longer. Recording a duration is two atomic adds and takes no lock.
+ */
+public class LatencyHistogram {
+
+    /** Number of buckets; the last starts at 2^(BUCKETS-1) ns, about 9 minutes. */
+    public static final int BUCKETS = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final StripedCounter totalNanos = new StripedCounter();
+
+    /** @return the bucket a duration of the specified length falls in */
+    public static int bucket(long nanos) {
+        if (nanos <= 1)
+            return 0;
+        return Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(nanos));
+    }
+
+    /** Counts one duration, in nanoseconds. */
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        buckets.getAndIncrement(bucket(nanos));
+        totalNanos.add(nanos);
+    }
+
+    /** Counts the duration from start, a value of System.nanoTime(), to now. */
+    public void recordSince(long start) {
+        record(System.nanoTime() - start);
+    }
+
+    /** @return the number of durations in each bucket */
+    public long[] counts() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            counts[i] = buckets.get(i);
+        return counts;
+    }
+
+    /** @return the sum of all recorded durations, in nanoseconds */
+    public long totalNanos() {
+        return totalNanos.sum();
+    }
+}
@@ -0,0 +1,309 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LockManager implements page-level locking for strict two-phase locking.
+ * READ_ONLY requests take a shared lock and READ_WRITE requests take an
+ * exclusive lock; a transaction that holds the only shared lock on a page
+ * may upgrade it to an exclusive one.
+ * <p>
+ * Requests that cannot be granted wait in a FIFO queue per page (upgrades
+ * go to the front), so a stream of readers cannot starve a writer. Before
+ * waiting, a transaction records which transactions it waits for in a
+ * wait-for graph; if that closes a cycle the request is withdrawn and
+ * {@link TransactionAbortedException} is thrown.
+ * <p>
+ * Locking a page nobody else holds does not take any monitor: the lock is
+ * created already granted and published with a single putIfAbsent. Checking
+ * a lock the transaction already holds is also lock free.
+ */
+public class LockManager {
+
+    /** How often a waiting transaction re-checks the wait-for graph. */
+    static final long DEADLOCK_CHECK_MS = 100;
+
+    private static class LockRequest {
+        final TransactionId tid;
+        final boolean exclusive;
+        boolean granted = false;
+
+        LockRequest(TransactionId tid, boolean exclusive) {
+            this.tid = tid;
+            this.exclusive = exclusive;
+        }
+    }
+
+    /**
+     * The lock on one page. All fields except {@link #writer} are guarded by
+     * the object's monitor. A lock with no holders and no waiters is marked
+     * dead and removed from the lock table; threads that still hold a
+     * reference to it retry with a fresh one.
+     */
+    private static class PageLock {
+        final HashMap<TransactionId, Boolean> holders = new HashMap<TransactionId, Boolean>();
+        final LinkedList<LockRequest> waiters = new LinkedList<LockRequest>();
+        volatile TransactionId writer;
+        boolean dead = false;
+
+        PageLock(TransactionId tid, boolean exclusive) {
+            holders.put(tid, exclusive);
+            if (exclusive)
+                writer = tid;
+        }
+    }
+
+    /**
+     * Edges from each waiting transaction to the transactions it waits for.
+     */
+    private static class WaitForGraph {
+        private final HashMap<TransactionId, Set<TransactionId>> edges =
+            new HashMap<TransactionId, Set<TransactionId>>();
+
+        synchronized void setWaits(TransactionId tid, Set<TransactionId> blockers) {
+            edges.put(tid, blockers);
+        }
+
+        synchronized void clear(TransactionId tid) {
+            edges.remove(tid);
+        }
+
+        /** @return true if tid can reach itself by following wait edges */
+        synchronized boolean hasCycle(TransactionId tid) {
+            HashSet<TransactionId> visited = new HashSet<TransactionId>();
+            LinkedList<TransactionId> stack = new LinkedList<TransactionId>();
+            Set<TransactionId> first = edges.get(tid);
+            if (first == null)
+                return false;
+            stack.addAll(first);
+            while (!stack.isEmpty()) {
+                TransactionId next = stack.removeFirst();
+                if (next.equals(tid))
+                    return true;
+                if (!visited.add(next))
+                    continue;
+                Set<TransactionId> out = edges.get(next);
+                if (out != null)
+                    stack.addAll(out);
+            }
+            return false;
+        }
+    }
+
+    private final ConcurrentHashMap<PageId, PageLock> locks;
+    private final ConcurrentHashMap<TransactionId, ConcurrentHashMap<PageId, Boolean>> held;
+    private final WaitForGraph waitFor;
+
+    public LockManager() {
+        locks = new ConcurrentHashMap<PageId, PageLock>();
+        held = new ConcurrentHashMap<TransactionId, ConcurrentHashMap<PageId, Boolean>>();
+        waitFor = new WaitForGraph();
+    }
+
+    /**
+     * Acquire a lock on the specified page, blocking until it is granted.
+     *
+     * @param tid the transaction requesting the lock
+     * @param pid the page to lock
+     * @param perm READ_ONLY for a shared lock, READ_WRITE for an exclusive one
+     * @throws TransactionAbortedException if waiting would deadlock
+     */
+    public void acquire(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException {
+        boolean exclusive = perm == Permissions.READ_WRITE;
+        ConcurrentHashMap<PageId, Boolean> mine = heldBy(tid);
+        Boolean current = mine.get(pid);
+        if (current != null && (current || !exclusive))
+            return;
+
+        while (true) {
+            PageLock lock = locks.get(pid);
+            if (lock == null) {
+                PageLock fresh = new PageLock(tid, exclusive);
+                if (locks.putIfAbsent(pid, fresh) == null) {
+                    mine.put(pid, exclusive);
+                    return;
+                }
+                continue;
+            }
+            synchronized (lock) {
+                if (lock.dead)
+                    continue;
+                acquireSlow(lock, tid, pid, exclusive);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Grants the request if possible, otherwise queues it and waits. Must be
+     * called with the lock's monitor held.
+     */
+    private void acquireSlow(PageLock lock, TransactionId tid, PageId pid,
+            boolean exclusive) throws TransactionAbortedException {
+        boolean upgrade = lock.holders.containsKey(tid);
+        LockRequest req = new LockRequest(tid, exclusive);
+        if ((upgrade || lock.waiters.isEmpty()) && compatible(lock, req)) {
+            grant(lock, pid, req);
+            return;
+        }
+
+        if (upgrade)
+            lock.waiters.addFirst(req);
+        else
+            lock.waiters.addLast(req);
+        try {
+            while (!req.granted) {
+                waitFor.setWaits(tid, blockers(lock, req));
+                if (waitFor.hasCycle(tid)) {
+                    lock.waiters.remove(req);
+                    grantWaiters(lock, pid);
+                    throw new TransactionAbortedException();
+                }
+                try {
+                    lock.wait(DEADLOCK_CHECK_MS);
+                } catch (InterruptedException e) {
+                    lock.waiters.remove(req);
+                    grantWaiters(lock, pid);
+                    Thread.currentThread().interrupt();
+                    throw new TransactionAbortedException();
+                }
+            }
+        } finally {
+            waitFor.clear(tid);
+        }
+    }
+
+    /** @return true if req can be granted given the current holders */
+    private boolean compatible(PageLock lock, LockRequest req) {
+        for (Map.Entry<TransactionId, Boolean> h : lock.holders.entrySet()) {
+            if (h.getKey().equals(req.tid))
+                continue;
+            if (req.exclusive || h.getValue())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the transactions req waits for: incompatible holders and the
+     *         requests queued ahead of it
+     */
+    private Set<TransactionId> blockers(PageLock lock, LockRequest req) {
+        HashSet<TransactionId> result = new HashSet<TransactionId>();
+        for (Map.Entry<TransactionId, Boolean> h : lock.holders.entrySet()) {
+            if (!h.getKey().equals(req.tid) && (req.exclusive || h.getValue()))
+                result.add(h.getKey());
+        }
+        for (LockRequest ahead : lock.waiters) {
+            if (ahead == req)
+                break;
+            if (!ahead.tid.equals(req.tid) && (req.exclusive || ahead.exclusive))
+                result.add(ahead.tid);
+        }
+        return result;
+    }
+
+    private void grant(PageLock lock, PageId pid, LockRequest req) {
+        Boolean was = lock.holders.get(req.tid);
+        boolean exclusive = req.exclusive || (was != null && was);
+        lock.holders.put(req.tid, exclusive);
+        if (exclusive)
+            lock.writer = req.tid;
+        heldBy(req.tid).put(pid, exclusive);
+        req.granted = true;
+    }
+
+    /**
+     * Grants queued requests in FIFO order until one cannot be granted.
+     * Must be called with the lock's monitor held.
+     */
+    private void grantWaiters(PageLock lock, PageId pid) {
+        boolean any = false;
+        while (!lock.waiters.isEmpty()) {
+            LockRequest next = lock.waiters.getFirst();
+            if (!compatible(lock, next))
+                break;
+            lock.waiters.removeFirst();
+            grant(lock, pid, next);
+            // it no longer waits for anybody
+            waitFor.clear(next.tid);
+            any = true;
+        }
+        if (any)
+            lock.notifyAll();
+    }
+
+    /**
+     * Release the lock tid holds on the specified page, if any.
+     */
+    public void release(TransactionId tid, PageId pid) {
+        ConcurrentHashMap<PageId, Boolean> mine = held.get(tid);
+        if (mine == null || mine.remove(pid) == null)
+            return;
+        PageLock lock = locks.get(pid);
+        if (lock == null)
+            return;
+        synchronized (lock) {
+            lock.holders.remove(tid);
+            if (lock.writer != null && lock.writer.equals(tid))
+                lock.writer = null;
+            if (lock.holders.isEmpty() && lock.waiters.isEmpty()) {
+                lock.dead = true;
+                locks.remove(pid, lock);
+            } else {
+                grantWaiters(lock, pid);
+            }
+        }
+    }
+
+    /**
+     * Release every lock held by the specified transaction.
+     */
+    public void releaseAll(TransactionId tid) {
+        ConcurrentHashMap<PageId, Boolean> mine = held.get(tid);
+        if (mine == null)
+            return;
+        for (PageId pid : new ArrayList<PageId>(mine.keySet()))
+            release(tid, pid);
+        held.remove(tid);
+    }
+
+    /** @return true if tid holds a lock of any mode on the specified page */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        ConcurrentHashMap<PageId, Boolean> mine = held.get(tid);
+        return mine != null && mine.containsKey(pid);
+    }
+
+    /** @return true if some transaction holds an exclusive lock on the page */
+    public boolean isWriteLocked(PageId pid) {
+        PageLock lock = locks.get(pid);
+        return lock != null && lock.writer != null;
+    }
+
+    /** @return true if tid currently holds at least one lock */
+    public boolean isActive(TransactionId tid) {
+        ConcurrentHashMap<PageId, Boolean> mine = held.get(tid);
+        return mine != null && !mine.isEmpty();
+    }
+
+    /** @return the pages tid currently holds locks on */
+    public Set<PageId> lockedPages(TransactionId tid) {
+        ConcurrentHashMap<PageId, Boolean> mine = held.get(tid);
+        if (mine == null)
+            return Collections.emptySet();
+        return new HashSet<PageId>(mine.keySet());
+    }
+
+    private ConcurrentHashMap<PageId, Boolean> heldBy(TransactionId tid) {
+        ConcurrentHashMap<PageId, Boolean> mine = held.get(tid);
+        if (mine == null) {
+            mine = new ConcurrentHashMap<PageId, Boolean>();
+            ConcurrentHashMap<PageId, Boolean> raced = held.putIfAbsent(tid, mine);
+            if (raced != null)
+                mine = raced;
+        }
+        return mine;
+    }
+}
@@ -271,6 +271,73 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * Returns the columns of a table that the query uses, in table order,
+     * if the table is a {@link PaxHeapFile} and the query does not use all
+     * of them; such a table is scanned with a {@link ColumnScan}, which only
+     * decodes those columns.
+     *
+     * @param table a table added via {@link #addScan}
+     * @return the indexes of the used columns, or null if the table should
+     *         be scanned with a SeqScan
+     */
+    int[] scanColumns(LogicalScanNode table) {
+        DbFile file = Database.getCatalog().getDbFile(table.t);
+        if (!(file instanceof PaxHeapFile))
+            return null;
+        TupleDesc td = file.getTupleDesc();
+        boolean[] used = new boolean[td.numFields()];
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*") || si.fname.equals(table.alias + ".*"))
+                return null;
+            markUsed(table.alias, si.fname, td, used);
+        }
+        if (hasAgg) {
+            markUsed(table.alias, aggField, td, used);
+            markUsed(table.alias, groupByField, td, used);
+        }
+        if (hasOrderBy)
+            markUsed(table.alias, oByField, td, used);
+        for (LogicalFilterNode lf : filters)
+            markUsed(table.alias, lf.fieldQuantifiedName, td, used);
+        for (LogicalJoinNode lj : joins) {
+            markUsed(table.alias, lj.f1QuantifiedName, td, used);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                markUsed(table.alias, lj.f2QuantifiedName, td, used);
+        }
+
+        int n = 0;
+        for (boolean u : used)
+            if (u)
+                n++;
+        if (n == 0 || n == used.length)
+            return null;
+        int[] columns = new int[n];
+        n = 0;
+        for (int i = 0; i < used.length; i++)
+            if (used[i])
+                columns[n++] = i;
+        return columns;
+    }
+
+    /**
+     * Marks the column named by a qualified field name as used if it belongs
+     * to the table with the specified alias. Unknown fields are left for
+     * {@link #physicalPlan} to report.
+     */
+    private static void markUsed(String alias, String field, TupleDesc td, boolean[] used) {
+        if (field == null)
+            return;
+        int dot = field.indexOf('.');
+        if (dot < 0 || !field.substring(0, dot).equals(alias))
+            return;
+        try {
+            used[td.fieldNameToIndex(field.substring(dot + 1))] = true;
+        } catch (NoSuchElementException e) {
+            // reported when the plan is built
+        }
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -292,11 +359,18 @@ public class LogicalPlan {
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
-            SeqScan ss = null;
+            DbIterator ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDbFile(table.t).getId(), table.alias);
+                int id = Database.getCatalog().getDbFile(table.t).getId();
+                int[] columns = scanColumns(table);
+                if (columns == null)
+                    ss = new SeqScan(t, id, table.alias);
+                else
+                    ss = new ColumnScan(t, id, table.alias, columns);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
+            } catch (DbException e) {
+                throw new ParsingException(e);
             }
             
             subplanMap.put(table.alias,ss);
@@ -338,7 +412,9 @@ public class LogicalPlan {
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            // the stats are over the base table, whose columns a ColumnScan may not all return
+            TupleDesc baseTd = Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias));
+            double sel= s.estimateSelectivity(baseTd.fieldNameToIndex(lf.fieldPureName), lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
@@ -348,6 +424,14 @@ public class LogicalPlan {
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
 
+        // estimated cardinality of each subplan, -1 if there are no stats
+        HashMap<String,Integer> cards = new HashMap<String,Integer>();
+        for (String alias : subplanMap.keySet()) {
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(alias)));
+            cards.put(alias, s == null ? -1
+                    : s.estimateTableCardinality(filterSelectivities.get(alias)));
+        }
+
         Iterator<LogicalJoinNode> joinIt = joins.iterator();
         while (joinIt.hasNext()) {
             LogicalJoinNode lj = joinIt.next();
@@ -381,9 +465,24 @@ public class LogicalPlan {
             if (plan2 == null)
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
             
+            int card1 = cards.get(t1name);
+            int card2 = isSubqueryJoin ? -1 : cards.get(t2name);
+            int outCard = -1;
+            if (card1 >= 0 && card2 >= 0)
+                outCard = jo.estimateJoinCardinality(lj, card1, card2,
+                        jo.isPkey(lj.t1Alias, lj.f1PureName),
+                        jo.isPkey(lj.t2Alias, lj.f2PureName), statsMap);
             DbIterator j;
-            j = jo.instantiateJoin(lj,plan1,plan2);
+            // the last join produces the final plan; if the query is ordered
+            // on one of its fields, join in that order to drop the sort when
+            // sorting the inputs costs less than sorting the output
+            boolean ordered = !joinIt.hasNext() && !isSubqueryJoin && hasOrderBy
+                    && oByAsc && !hasAgg && (oByField.equals(lj.f1QuantifiedName)
+                    || (lj.p == Predicate.Op.EQUALS && oByField.equals(lj.f2QuantifiedName)))
+                    && jo.sortMergeForOrder(lj, plan1, plan2, card1, card2, outCard);
+            j = JoinOptimizer.instantiateJoin(lj,plan1,plan2,card1,card2,ordered);
             subplanMap.put(t1name, j);
+            cards.put(t1name, outCard);
 
             if (!isSubqueryJoin) {
                 subplanMap.remove(t2name);
@@ -475,7 +574,9 @@ public class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int field = node.getTupleDesc().fieldNameToIndex(oByField);
+            if (!oByAsc || !SortMergeJoin.isSortedOn(node, field))
+                node = new OrderBy(field, oByAsc, node);
         }
 
         return new Project(outFields, outTypes, node);
@@ -0,0 +1,105 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * LruKPolicy is a constant-time approximation of the LRU-K replacement
+ * policy. Pages that have been referenced fewer than K times have an
+ * infinite backward K-distance, so they are kept in a FIFO "cold" queue and
+ * are always evicted first. Once a page reaches K references it moves to a
+ * "hot" queue kept in least recently used order. A single sequential scan
+ * therefore only churns the cold queue and cannot push out pages that are
+ * referenced repeatedly. Pages loaded cold by a large scan are kept in a
+ * third FIFO queue that is emptied before the other two; accessing such a page
+ * again makes it an ordinary cold page.
+ */
+public class LruKPolicy implements ReplacementPolicy {
+
+    /** Default number of references before a page is considered hot. */
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+
+    /* pages loaded by large scans and not referenced since, in load order */
+    private LinkedHashMap<PageId, Integer> scan;
+    /* pages seen fewer than k times, in order of first reference */
+    private LinkedHashMap<PageId, Integer> cold;
+    /* pages seen at least k times, least recently used first */
+    private LinkedHashMap<PageId, Integer> hot;
+
+    public LruKPolicy() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @param k the number of references after which a page is kept in
+     *          least recently used order instead of FIFO order
+     */
+    public LruKPolicy(int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be at least 1");
+        this.k = k;
+        scan = new LinkedHashMap<PageId, Integer>();
+        cold = new LinkedHashMap<PageId, Integer>();
+        hot = new LinkedHashMap<PageId, Integer>(16, 0.75f, true);
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        if (hot.containsKey(pid) || cold.containsKey(pid) || scan.containsKey(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        if (k == 1)
+            hot.put(pid, 1);
+        else
+            cold.put(pid, 1);
+    }
+
+    public synchronized void pageLoadedCold(PageId pid) {
+        if (hot.containsKey(pid) || cold.containsKey(pid) || scan.containsKey(pid))
+            return;
+        scan.put(pid, 0);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        if (hot.get(pid) != null)
+            return; // get() already moved it to the most recently used end
+        if (scan.remove(pid) != null) {
+            pageLoaded(pid);
+            return;
+        }
+        Integer refs = cold.get(pid);
+        if (refs == null)
+            return;
+        if (refs + 1 >= k) {
+            cold.remove(pid);
+            hot.put(pid, refs + 1);
+        } else {
+            cold.put(pid, refs + 1);
+        }
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        if (scan.remove(pid) == null && cold.remove(pid) == null)
+            hot.remove(pid);
+    }
+
+    public synchronized PageId chooseVictim(Evictable filter) {
+        PageId victim = firstEvictable(scan.keySet().iterator(), filter);
+        if (victim == null)
+            victim = firstEvictable(cold.keySet().iterator(), filter);
+        if (victim == null)
+            victim = firstEvictable(hot.keySet().iterator(), filter);
+        return victim;
+    }
+
+    private PageId firstEvictable(Iterator<PageId> it, Evictable filter) {
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (filter.canEvict(pid))
+                return pid;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,184 @@
+package simpledb;
+
+import java.io.*;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * MappedHeapFile is a HeapFile whose pages are read from a read-only memory
+ * mapping of the backing file instead of with read calls. Each HeapPage is
+ * built on a slice of the mapping, without copying it; the page copies its
+ * bytes to the heap only when it is first changed. It is meant for large
+ * tables that are mostly read.
+ * <p>
+ * The mapping is shared with the file, so writing a page changes the bytes
+ * of every page object built on its slice. Before a page is written, the
+ * page objects this file built on that slice are therefore copied off it
+ * (see {@link HeapPage#detach}). Tuples they handed out earlier still
+ * decode from the mapping; under strict two-phase locking the page is only
+ * written when the transactions that read those tuples have finished.
+ * <p>
+ * A single mapping cannot exceed 2GB, so the file is mapped in segments of
+ * {@link #SEGMENT_BYTES} bytes; a page never spans two segments. Writes go
+ * through the normal {@link HeapFile#writePage} path. The mapping is shared
+ * with the file, so it sees them; a page past the end of the mapped region
+ * (the file grew) makes the file be mapped again.
+ */
+public class MappedHeapFile extends HeapFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Bytes per mapped segment; a multiple of any sensible page size. */
+    public static final int SEGMENT_BYTES = 256 << 20;
+
+    /* pages per mapped segment */
+    private final int segmentPages;
+
+    /* the mapped segments and the number of pages they cover */
+    private transient volatile MappedByteBuffer[] segments;
+    private transient volatile int mappedPages;
+    /* the pages built on the mapping, by page number, until they are
+       written */
+    private transient volatile ConcurrentHashMap<Integer,List<WeakReference<HeapPage>>> built;
+
+    public MappedHeapFile(File f, TupleDesc td) {
+        this(f, td, BufferPool.PAGE_SIZE);
+    }
+
+    public MappedHeapFile(File f, TupleDesc td, int pageSize) {
+        super(f, td, pageSize);
+        this.segmentPages = Math.max(1, SEGMENT_BYTES / pageSize);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        int pgNo = pid.pageNumber();
+        int seg = pgNo / segmentPages;
+        int offset = (pgNo % segmentPages) * pageSize;
+        try {
+            MappedByteBuffer[] segs = segments;
+            if (!covers(segs, seg, offset))
+                segs = remap(pgNo);
+            if (!covers(segs, seg, offset)) {
+                // not on disk yet; the plain path returns an empty page
+                return super.readPage(pid);
+            }
+            ByteBuffer page = segs[seg].duplicate();
+            page.position(offset);
+            page.limit(offset + pageSize);
+            HeapPage hp = new HeapPage((HeapPageId)pid, page.slice());
+            remember(hp);
+            return hp;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Records a page built on the mapping, so that it can be detached before
+     * its page is written.
+     */
+    private void remember(HeapPage page) {
+        ConcurrentHashMap<Integer,List<WeakReference<HeapPage>>> b = built;
+        if (b == null) {
+            synchronized (this) {
+                if (built == null)
+                    built = new ConcurrentHashMap<Integer,List<WeakReference<HeapPage>>>();
+                b = built;
+            }
+        }
+        Integer pgNo = page.getId().pageNumber();
+        List<WeakReference<HeapPage>> l = b.get(pgNo);
+        if (l == null) {
+            List<WeakReference<HeapPage>> fresh = new ArrayList<WeakReference<HeapPage>>(1);
+            l = b.putIfAbsent(pgNo, fresh);
+            if (l == null)
+                l = fresh;
+        }
+        synchronized (l) {
+            Iterator<WeakReference<HeapPage>> it = l.iterator();
+            while (it.hasNext())
+                if (it.next().get() == null)
+                    it.remove();
+            l.add(new WeakReference<HeapPage>(page));
+        }
+    }
+
+    /** Copies the pages built on the slice of a page off the mapping. */
+    private void detach(int pgNo) {
+        ConcurrentHashMap<Integer,List<WeakReference<HeapPage>>> b = built;
+        List<WeakReference<HeapPage>> l = b == null ? null : b.remove(pgNo);
+        if (l == null)
+            return;
+        synchronized (l) {
+            for (WeakReference<HeapPage> ref : l) {
+                HeapPage p = ref.get();
+                if (p != null)
+                    p.detach();
+            }
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        detach(page.getId().pageNumber());
+        super.writePage(page);
+    }
+
+    public void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages)
+            detach(p.getId().pageNumber());
+        super.writePages(pages);
+    }
+
+    private boolean covers(MappedByteBuffer[] segs, int seg, int offset) {
+        return segs != null && seg < segs.length
+            && offset + pageSize <= segs[seg].capacity();
+    }
+
+    /**
+     * Maps the whole pages of the file again if pgNo is not covered by the
+     * current mapping.
+     *
+     * @return the current segments
+     */
+    private synchronized MappedByteBuffer[] remap(int pgNo) throws IOException {
+        if (segments != null && pgNo < mappedPages)
+            return segments;
+        FileChannel ch = channel();
+        long pages = ch.size() / pageSize;
+        int numSegments = (int)((pages + segmentPages - 1) / segmentPages);
+        MappedByteBuffer[] segs = new MappedByteBuffer[numSegments];
+        MappedByteBuffer[] old = segments;
+        for (int i = 0; i < numSegments; i++) {
+            long first = (long)i * segmentPages;
+            long count = Math.min(segmentPages, pages - first);
+            // full segments of the old mapping are still valid
+            if (old != null && i < old.length
+                    && old[i].capacity() == count * pageSize) {
+                segs[i] = old[i];
+                continue;
+            }
+            segs[i] = ch.map(FileChannel.MapMode.READ_ONLY,
+                    first * pageSize, count * pageSize);
+        }
+        segments = segs;
+        mappedPages = (int)pages;
+        return segs;
+    }
+
+    /**
+     * Drops the mapping and closes the backing file. The mapping itself is
+     * released once the pages built on it are garbage.
+     */
+    public synchronized void close() throws IOException {
+        segments = null;
+        mappedPages = 0;
+        super.close();
+    }
+}
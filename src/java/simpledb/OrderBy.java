@@ -57,8 +57,12 @@ public class OrderBy extends Operator {
             TransactionAbortedException {
         child.open();
         // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
+        boolean copy = Tuple.isReuseEnabled();
+        childTups.clear();
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            childTups.add(copy ? t.copy() : t);
+        }
         Collections.sort(childTups, new TupleComparator(orderByField, asc));
         it = childTups.iterator();
         super.open();
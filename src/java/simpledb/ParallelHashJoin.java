@@ -0,0 +1,341 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * ParallelHashJoin is an in-memory equi-join that runs on a pool of worker
+ * threads. The calling thread reads both children in chunks of
+ * {@link #CHUNK_TUPLES} tuples and workers radix-partition each chunk on
+ * the hash of its join field. Once both children are read, one task per
+ * partition builds a hash table on its tuples of the build side and probes
+ * it with its tuples of the other side. The outputs of the partitions are
+ * returned one partition after the other, so the first partition's tuples
+ * can be returned while later ones are still being joined. At most
+ * {@link #NUM_THREADS} partitions are joined ahead of the one being
+ * returned, so only their share of the join output is held in memory.
+ * <p>
+ * Both children must fit in memory. The children are only read by the
+ * calling thread, so the workers never use the BufferPool or the
+ * transaction's locks. The output tuples are the concatenation of a child1
+ * tuple and a child2 tuple, in that order, whichever side is built; output
+ * order is not defined.
+ */
+public class ParallelHashJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of worker threads in the shared pool. */
+    public static final int NUM_THREADS = Runtime.getRuntime().availableProcessors();
+    /**
+     * The fewest input tuples for which the optimizer runs a join in
+     * parallel; below this the tasks cost more than they save.
+     */
+    public static final int MIN_TUPLES = 10000;
+    /** The number of tuples of a child partitioned by one task. */
+    public static final int CHUNK_TUPLES = 4096;
+
+    private static ExecutorService executor;
+
+    private static synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(NUM_THREADS, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-join");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return executor;
+    }
+
+    private JoinPredicate pred;
+    private DbIterator child1;
+    private DbIterator child2;
+    private final boolean buildLeft;
+    private final int partitions;
+    private TupleDesc td;
+
+    /* the partitioned chunks of the build and probe children */
+    private transient List<Future<List<ArrayList<Tuple>>>> build, probe;
+    /* the joined tuples of the partitions submitted and not yet returned,
+       in partition order, and the next partition to submit */
+    private transient LinkedList<Future<ArrayList<Tuple>>> results;
+    private transient int nextPart;
+    private transient Iterator<Tuple> current;
+
+    /**
+     * Creates a join that builds on child2, with four partitions per worker
+     * thread of the shared pool.
+     *
+     * @param p the predicate to join on; its operator must be EQUALS
+     * @param child1 the left child
+     * @param child2 the right child
+     * @throws IllegalArgumentException if the predicate is not an equality
+     */
+    public ParallelHashJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, false);
+    }
+
+    /**
+     * Creates a join with four partitions per worker thread of the shared
+     * pool.
+     *
+     * @param p the predicate to join on; its operator must be EQUALS
+     * @param child1 the left child
+     * @param child2 the right child
+     * @param buildLeft true to build on child1 and probe with child2
+     * @throws IllegalArgumentException if the predicate is not an equality
+     */
+    public ParallelHashJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            boolean buildLeft) {
+        this(p, child1, child2, buildLeft, 4 * NUM_THREADS);
+    }
+
+    /**
+     * @param p the predicate to join on; its operator must be EQUALS
+     * @param child1 the left child
+     * @param child2 the right child
+     * @param buildLeft true to build on child1 and probe with child2
+     * @param partitions the number of partitions, rounded up to a power of
+     *        two
+     * @throws IllegalArgumentException if the predicate is not an equality
+     */
+    public ParallelHashJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            boolean buildLeft, int partitions) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("hash join needs an equality predicate");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.buildLeft = buildLeft;
+        int n = 1;
+        while (n < partitions)
+            n <<= 1;
+        this.partitions = n;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    /** @return true if the hash tables are built on child1 */
+    public boolean buildsLeft() {
+        return buildLeft;
+    }
+
+    /** @return the number of partitions the inputs are split into */
+    public int numPartitions() {
+        return partitions;
+    }
+
+    public TupleDesc getTupleDesc() {
+        if (td == null)
+            td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        child1.open();
+        child2.open();
+        join();
+    }
+
+    private void join() throws DbException, TransactionAbortedException {
+        build = buildLeft ? partition(child1, pred.getField1())
+                : partition(child2, pred.getField2());
+        probe = buildLeft ? partition(child2, pred.getField2())
+                : partition(child1, pred.getField1());
+        // a joiner only waits for partitioners submitted before it, so the
+        // pool cannot fill up with joiners waiting for queued partitioners
+        results = new LinkedList<Future<ArrayList<Tuple>>>();
+        nextPart = 0;
+        while (nextPart < partitions && results.size() < NUM_THREADS)
+            submitJoiner();
+        current = null;
+    }
+
+    private void submitJoiner() {
+        results.add(executor().submit(new Joiner(nextPart++, getTupleDesc())));
+    }
+
+    /**
+     * Reads a child in chunks and submits a task to partition each chunk.
+     *
+     * @return the partitioned chunks, in the order they were read
+     */
+    private List<Future<List<ArrayList<Tuple>>>> partition(DbIterator child, int field)
+            throws DbException, TransactionAbortedException {
+        List<Future<List<ArrayList<Tuple>>>> chunks = new ArrayList<Future<List<ArrayList<Tuple>>>>();
+        boolean copy = Tuple.isReuseEnabled();
+        while (child.hasNext()) {
+            Tuple[] chunk = new Tuple[CHUNK_TUPLES];
+            int n = 0;
+            while (n < CHUNK_TUPLES && child.hasNext()) {
+                Tuple t = child.next();
+                chunk[n++] = copy ? t.copy() : t;
+            }
+            chunks.add(executor().submit(new Partitioner(chunk, n, field)));
+        }
+        return chunks;
+    }
+
+    /** Returns the partition of a join key. */
+    private int partitionOf(Field key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (partitions - 1);
+    }
+
+    private static <T> T await(Future<T> f) throws DbException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("join interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException)e.getCause();
+            throw new DbException("join failed: " + e.getCause());
+        }
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        cancel();
+    }
+
+    private void cancel() {
+        if (results != null)
+            for (Future<ArrayList<Tuple>> f : results)
+                f.cancel(true);
+        results = null;
+        build = probe = null;
+        current = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        cancel();
+        child1.rewind();
+        child2.rewind();
+        join();
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (current == null || !current.hasNext()) {
+            if (results == null || results.isEmpty())
+                return null;
+            current = await(results.removeFirst()).iterator();
+            if (nextPart < partitions)
+                submitJoiner();
+        }
+        return current.next();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+        td = null;
+    }
+
+    /** Splits a chunk of tuples by the partition of their join field. */
+    private class Partitioner implements Callable<List<ArrayList<Tuple>>> {
+        private final Tuple[] chunk;
+        private final int n;
+        private final int field;
+
+        Partitioner(Tuple[] chunk, int n, int field) {
+            this.chunk = chunk;
+            this.n = n;
+            this.field = field;
+        }
+
+        public List<ArrayList<Tuple>> call() {
+            List<ArrayList<Tuple>> parts = new ArrayList<ArrayList<Tuple>>(
+                    Collections.<ArrayList<Tuple>>nCopies(partitions, null));
+            for (int i = 0; i < n; i++) {
+                int p = partitionOf(chunk[i].getField(field));
+                ArrayList<Tuple> l = parts.get(p);
+                if (l == null) {
+                    l = new ArrayList<Tuple>();
+                    parts.set(p, l);
+                }
+                l.add(chunk[i]);
+            }
+            return parts;
+        }
+    }
+
+    /**
+     * Builds and probes the hash table of one partition. Its chunks of the
+     * inputs are dropped as they are read, as no other task uses them.
+     */
+    private class Joiner implements Callable<ArrayList<Tuple>> {
+        private final int part;
+        private final List<Future<List<ArrayList<Tuple>>>> build;
+        private final List<Future<List<ArrayList<Tuple>>>> probe;
+        private final TupleDesc outTd;
+
+        Joiner(int part, TupleDesc outTd) {
+            this.part = part;
+            this.build = ParallelHashJoin.this.build;
+            this.probe = ParallelHashJoin.this.probe;
+            this.outTd = outTd;
+        }
+
+        public ArrayList<Tuple> call() throws Exception {
+            HashMap<Field,ArrayList<Tuple>> table = new HashMap<Field,ArrayList<Tuple>>();
+            int buildField = buildLeft ? pred.getField1() : pred.getField2();
+            for (Future<List<ArrayList<Tuple>>> chunk : build) {
+                ArrayList<Tuple> l = chunk.get().set(part, null);
+                if (l == null)
+                    continue;
+                for (Tuple t : l) {
+                    Field key = t.getField(buildField);
+                    ArrayList<Tuple> matches = table.get(key);
+                    if (matches == null) {
+                        matches = new ArrayList<Tuple>(1);
+                        table.put(key, matches);
+                    }
+                    matches.add(t);
+                }
+            }
+            ArrayList<Tuple> out = new ArrayList<Tuple>();
+            int probeField = buildLeft ? pred.getField2() : pred.getField1();
+            for (Future<List<ArrayList<Tuple>>> chunk : probe) {
+                ArrayList<Tuple> l = chunk.get().set(part, null);
+                if (l == null || table.isEmpty())
+                    continue;
+                for (Tuple t : l) {
+                    ArrayList<Tuple> matches = table.get(t.getField(probeField));
+                    if (matches == null)
+                        continue;
+                    for (Tuple m : matches)
+                        out.add(buildLeft ? joinTuples(outTd, m, t) : joinTuples(outTd, t, m));
+                }
+            }
+            return out;
+        }
+    }
+
+    private static Tuple joinTuples(TupleDesc td, Tuple left, Tuple right) {
+        int n1 = left.getTupleDesc().numFields();
+        int n2 = right.getTupleDesc().numFields();
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < n1; i++)
+            t.setField(i, left.getField(i));
+        for (int i = 0; i < n2; i++)
+            t.setField(n1 + i, right.getField(i));
+        return t;
+    }
+}
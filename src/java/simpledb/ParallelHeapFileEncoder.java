@@ -0,0 +1,351 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.LinkedList;
+import java.util.concurrent.*;
+
+/**
+ * ParallelHeapFileEncoder converts a delimited text file into a heap file,
+ * like {@link HeapFileEncoder#convert(File, File, int, int, Type[], char)},
+ * using several threads.
+ * <p>
+ * The input is split into chunks that end at line boundaries. Worker threads
+ * parse the chunks and encode their records in the on-disk tuple format. A
+ * single writer takes the encoded chunks in input order, packs their records
+ * into pages, and writes the pages {@link #WRITE_PAGES} at a time. The output
+ * is byte for byte what HeapFileEncoder produces for well-formed input.
+ * <p>
+ * Malformed input is handled so that every record still occupies exactly one
+ * slot. An int field that does not parse is stored as 0, with a message as
+ * in HeapFileEncoder. Missing fields are stored as 0 or the empty string,
+ * and extra fields are ignored. A last line without a trailing newline is
+ * loaded like any other line.
+ */
+public class ParallelHeapFileEncoder {
+
+    /** Approximate size of the input chunks handed to the workers. */
+    public static final int CHUNK_BYTES = 4 << 20;
+    /** Number of pages written with each write call. */
+    public static final int WRITE_PAGES = 256;
+
+    /**
+     * Convert the specified input text file into a binary page file, using
+     * one worker thread per processor.
+     *
+     * @see HeapFileEncoder#convert(File, File, int, int, Type[], char)
+     */
+    public static void convert(File inFile, File outFile, int npagebytes,
+            int numFields, Type[] typeAr, char fieldSeparator) throws IOException {
+        convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Convert the specified input text file into a binary page file.
+     *
+     * @param inFile The input file to read data from
+     * @param outFile The output file to write data to
+     * @param npagebytes The number of bytes per page in the output file
+     * @param numFields the number of fields in each input line/output tuple
+     * @param typeAr the types of the fields
+     * @param fieldSeparator the character between two fields of a line
+     * @param numThreads the number of parsing threads
+     * @throws IOException if the input/output file can't be read or written
+     */
+    public static void convert(File inFile, File outFile, int npagebytes,
+            int numFields, Type[] typeAr, char fieldSeparator, int numThreads)
+            throws IOException {
+        convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator,
+                numThreads, CHUNK_BYTES);
+    }
+
+    static void convert(File inFile, File outFile, int npagebytes,
+            int numFields, Type[] typeAr, char fieldSeparator, int numThreads,
+            int chunkBytes) throws IOException {
+        Layout layout = new Layout(npagebytes, numFields, typeAr);
+        RandomAccessFile in = new RandomAccessFile(inFile, "r");
+        FileOutputStream os = new FileOutputStream(outFile);
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, numThreads));
+        try {
+            FileChannel input = in.getChannel();
+            long[] bounds = split(input, chunkBytes);
+            PageWriter writer = new PageWriter(layout, os.getChannel());
+
+            // keep a bounded number of chunks in memory, and hand them to
+            // the writer in input order
+            LinkedList<Future<Chunk>> pending = new LinkedList<Future<Chunk>>();
+            int next = 0;
+            int window = 2 * Math.max(1, numThreads);
+            while (next < bounds.length - 1 || !pending.isEmpty()) {
+                while (next < bounds.length - 1 && pending.size() < window) {
+                    pending.addLast(workers.submit(new ChunkParser(input,
+                            bounds[next], bounds[next + 1], layout, fieldSeparator)));
+                    next++;
+                }
+                writer.add(await(pending.removeFirst()));
+            }
+            writer.finish();
+        } finally {
+            workers.shutdownNow();
+            in.close();
+            os.close();
+        }
+    }
+
+    private static Chunk await(Future<Chunk> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("bulk load interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException)e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException)e.getCause();
+            throw new IOException("bulk load failed: " + e.getCause());
+        }
+    }
+
+    /**
+     * @return chunk boundaries: 0, the offsets just after the first newline
+     *         at or past each multiple of chunkBytes, and the file length
+     */
+    private static long[] split(FileChannel input, int chunkBytes) throws IOException {
+        long size = input.size();
+        LinkedList<Long> bounds = new LinkedList<Long>();
+        bounds.add(0L);
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long pos = chunkBytes;
+        while (pos < size) {
+            long cut = -1;
+            while (cut < 0 && pos < size) {
+                probe.clear();
+                int n = input.read(probe, pos);
+                if (n <= 0)
+                    break;
+                for (int i = 0; i < n; i++) {
+                    if (probe.get(i) == '\n') {
+                        cut = pos + i + 1;
+                        break;
+                    }
+                }
+                if (cut < 0)
+                    pos += n;
+            }
+            if (cut < 0 || cut >= size)
+                break;
+            bounds.add(cut);
+            pos = cut + chunkBytes;
+        }
+        bounds.add(size);
+        long[] result = new long[bounds.size()];
+        int i = 0;
+        for (Long b : bounds)
+            result[i++] = b;
+        return result;
+    }
+
+    /** Sizes derived from the schema and the page size. */
+    private static class Layout {
+        final int npagebytes;
+        final int numFields;
+        final Type[] typeAr;
+        final int nrecbytes;
+        final int nrecords;
+        final int nheaderbytes;
+
+        Layout(int npagebytes, int numFields, Type[] typeAr) {
+            this.npagebytes = npagebytes;
+            this.numFields = numFields;
+            this.typeAr = typeAr;
+            int recbytes = 0;
+            for (int i = 0; i < numFields; i++)
+                recbytes += typeAr[i].getLen();
+            nrecbytes = recbytes;
+            nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1);
+            nheaderbytes = (nrecords + 7) / 8;
+        }
+    }
+
+    /** The encoded records of one chunk, back to back. */
+    private static class Chunk {
+        final byte[] records;
+        final int count;
+
+        Chunk(byte[] records, int count) {
+            this.records = records;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Parses the lines of one chunk, with the same rules as HeapFileEncoder:
+     * carriage returns are ignored and so are empty lines.
+     */
+    private static class ChunkParser implements Callable<Chunk> {
+        private final FileChannel input;
+        private final long start, end;
+        private final Layout layout;
+        private final char separator;
+
+        ChunkParser(FileChannel input, long start, long end, Layout layout, char separator) {
+            this.input = input;
+            this.start = start;
+            this.end = end;
+            this.layout = layout;
+            this.separator = separator;
+        }
+
+        public Chunk call() throws IOException {
+            ByteBuffer bytes = ByteBuffer.allocate((int)(end - start));
+            while (bytes.hasRemaining()) {
+                if (input.read(bytes, start + bytes.position()) < 0)
+                    break;
+            }
+            bytes.flip();
+            int lines = 1;
+            for (int i = 0; i < bytes.limit(); i++)
+                if (bytes.get(i) == '\n')
+                    lines++;
+            // the same decoding HeapFileEncoder's FileReader does
+            CharBuffer chars = Charset.defaultCharset().decode(bytes);
+
+            ByteBuffer out = ByteBuffer.allocate(lines * layout.nrecbytes);
+            StringBuilder field = new StringBuilder();
+            int fieldNo = 0;
+            int count = 0;
+            boolean first = true;
+            while (chars.hasRemaining()) {
+                char c = chars.get();
+                if (c == '\r')
+                    continue;
+                if (c == '\n') {
+                    if (first)
+                        continue;
+                    endField(out, field, fieldNo);
+                    endLine(out, fieldNo + 1);
+                    fieldNo = 0;
+                    count++;
+                    first = true;
+                } else if (c == separator) {
+                    endField(out, field, fieldNo);
+                    fieldNo++;
+                    first = false;
+                } else {
+                    field.append(c);
+                    first = false;
+                }
+            }
+            if (!first) {
+                endField(out, field, fieldNo);
+                endLine(out, fieldNo + 1);
+                count++;
+            }
+            byte[] records = new byte[out.position()];
+            out.flip();
+            out.get(records);
+            return new Chunk(records, count);
+        }
+
+        private void endField(ByteBuffer out, StringBuilder field, int fieldNo) {
+            String s = field.toString();
+            field.setLength(0);
+            if (fieldNo >= layout.numFields)
+                return;
+            if (layout.typeAr[fieldNo] == Type.INT_TYPE) {
+                int v = 0;
+                try {
+                    v = Integer.parseInt(s.trim());
+                } catch (NumberFormatException e) {
+                    System.out.println ("BAD LINE : " + s);
+                }
+                out.putInt(v);
+            } else {
+                putString(out, s.trim());
+            }
+        }
+
+        /** Stores defaults for the fields a line did not have. */
+        private void endLine(ByteBuffer out, int fieldsSeen) {
+            for (int i = fieldsSeen; i < layout.numFields; i++) {
+                if (layout.typeAr[i] == Type.INT_TYPE)
+                    out.putInt(0);
+                else
+                    putString(out, "");
+            }
+        }
+
+        private static void putString(ByteBuffer out, String s) {
+            if (s.length() > Type.STRING_LEN)
+                s = s.substring(0, Type.STRING_LEN);
+            out.putInt(s.length());
+            // like DataOutputStream.writeBytes: the low byte of each char
+            for (int i = 0; i < s.length(); i++)
+                out.put((byte)s.charAt(i));
+            for (int i = s.length(); i < Type.STRING_LEN; i++)
+                out.put((byte)0);
+        }
+    }
+
+    /**
+     * Packs encoded records into pages and writes them in large batches.
+     */
+    private static class PageWriter {
+        private final Layout layout;
+        private final FileChannel out;
+        private final ByteBuffer batch;
+        private byte[] page;
+        private int inPage = 0;
+        private int npages = 0;
+
+        PageWriter(Layout layout, FileChannel out) {
+            this.layout = layout;
+            this.out = out;
+            this.batch = ByteBuffer.allocate(WRITE_PAGES * layout.npagebytes);
+            this.page = new byte[layout.npagebytes];
+        }
+
+        void add(Chunk chunk) throws IOException {
+            int done = 0;
+            while (done < chunk.count) {
+                int n = Math.min(chunk.count - done, layout.nrecords - inPage);
+                System.arraycopy(chunk.records, done * layout.nrecbytes, page,
+                        layout.nheaderbytes + inPage * layout.nrecbytes, n * layout.nrecbytes);
+                for (int i = inPage; i < inPage + n; i++)
+                    page[i / 8] |= (byte)(1 << (i % 8));
+                inPage += n;
+                done += n;
+                if (inPage == layout.nrecords)
+                    endPage();
+            }
+        }
+
+        private void endPage() throws IOException {
+            batch.put(page);
+            java.util.Arrays.fill(page, (byte)0);
+            inPage = 0;
+            npages++;
+            if (!batch.hasRemaining())
+                flush();
+        }
+
+        private void flush() throws IOException {
+            batch.flip();
+            while (batch.hasRemaining())
+                out.write(batch);
+            batch.clear();
+        }
+
+        /** Writes the last, partly filled page, or an empty one for an empty input. */
+        void finish() throws IOException {
+            if (inPage > 0 || npages == 0)
+                endPage();
+            flush();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Iterator;
+
+/**
+ * PaxHeapFile is a HeapFile whose pages are {@link PaxPage}s, which store
+ * the values of each column together. It holds the same tuples per page as a
+ * HeapFile; a {@link ColumnScan} over a few columns of a wide table decodes
+ * only those columns' values.
+ *
+ * @see #convert
+ */
+public class PaxHeapFile extends HeapFile {
+
+    private static final long serialVersionUID = 1L;
+
+    public PaxHeapFile(File f, TupleDesc td) {
+        this(f, td, BufferPool.PAGE_SIZE);
+    }
+
+    public PaxHeapFile(File f, TupleDesc td, int pageSize) {
+        super(f, td, pageSize);
+    }
+
+    protected TuplePage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new PaxPage(pid, data);
+    }
+
+    protected Iterator<Tuple> tuples(TuplePage page, int[] columns, TupleDesc projected,
+            boolean reuse) {
+        if (columns == null)
+            return page.iterator();
+        return ((PaxPage)page).iterator(columns, projected);
+    }
+
+    /**
+     * Writes a copy of a heap file in the PAX format, page by page.
+     *
+     * @param heapFile a file of HeapPages, as written by HeapFile or
+     *        HeapFileEncoder
+     * @param paxFile the file to write
+     * @param td the TupleDesc of the table
+     * @param pageSize the number of bytes per page of both files
+     */
+    public static void convert(File heapFile, File paxFile, TupleDesc td, int pageSize)
+            throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(heapFile)));
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(paxFile));
+        try {
+            long numPages = (heapFile.length() + pageSize - 1) / pageSize;
+            byte[] page = new byte[pageSize];
+            for (long i = 0; i < numPages; i++) {
+                java.util.Arrays.fill(page, (byte)0);
+                int n = 0;
+                while (n < pageSize) {
+                    int r = in.read(page, n, pageSize - n);
+                    if (r < 0)
+                        break;
+                    n += r;
+                }
+                out.write(PaxPage.fromHeapPageData(td, page));
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * PaxPage is a page of a {@link PaxHeapFile}. It holds as many tuples as a
+ * HeapPage of the same size, with the same header bitmap of used slots, but
+ * stores the values column by column (the PAX layout): after the header
+ * comes a "minipage" with the first field of every slot, then one with the
+ * second field of every slot, and so on. A scan that needs a few columns of
+ * a wide table reads only those minipages.
+ * <pre>
+ *   header              ceiling(numSlots / 8) bytes, bit i set if slot i is used
+ *   minipage of col 0   numSlots values of column 0, each getLen() bytes
+ *   minipage of col 1   ...
+ * </pre>
+ * Values are stored in their usual on-disk format (see {@link Type}), and
+ * empty slots are all zeros, so a page of all zeros is empty.
+ *
+ * @see PaxHeapFile
+ */
+public class PaxPage implements TuplePage {
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final int pageSize;
+    final int numSlots;
+    final int headerSize;
+    /* offset of each column's minipage */
+    final int[] columnStart;
+
+    byte[] data;
+    /* true if data is seen by an iterator or the before image */
+    boolean shared;
+    /* the before image; null if it is the current contents */
+    byte[] oldData;
+    TransactionId dirtyTid;
+
+    /**
+     * Create a PaxPage from the bytes of a page read from disk, in the
+     * format described above. The page size is the length of data.
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = data.length;
+        this.numSlots = (pageSize * 8) / (td.getSize() * 8 + 1);
+        this.headerSize = (numSlots + 7) / 8;
+        if (numSlots == 0)
+            throw new IOException("page data too short: " + pageSize + " bytes");
+        this.columnStart = columnStarts(td, numSlots, headerSize);
+        this.data = data;
+        this.shared = true;
+        this.oldData = data;
+    }
+
+    private static int[] columnStarts(TupleDesc td, int numSlots, int headerSize) {
+        int[] starts = new int[td.numFields()];
+        int offset = headerSize;
+        for (int j = 0; j < starts.length; j++) {
+            starts[j] = offset;
+            offset += numSlots * td.getFieldType(j).getLen();
+        }
+        return starts;
+    }
+
+    /**
+     * Rearranges the bytes of a HeapPage into the bytes of the PaxPage with
+     * the same tuples in the same slots.
+     *
+     * @param heapPage the bytes of a HeapPage of a table with this TupleDesc
+     */
+    public static byte[] fromHeapPageData(TupleDesc td, byte[] heapPage) {
+        int numSlots = (heapPage.length * 8) / (td.getSize() * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+        int[] starts = columnStarts(td, numSlots, headerSize);
+        byte[] pax = new byte[heapPage.length];
+        System.arraycopy(heapPage, 0, pax, 0, headerSize);
+        int fieldOffset = 0;
+        for (int j = 0; j < starts.length; j++) {
+            int len = td.getFieldType(j).getLen();
+            for (int i = 0; i < numSlots; i++)
+                System.arraycopy(heapPage, headerSize + i * td.getSize() + fieldOffset,
+                        pax, starts[j] + i * len, len);
+            fieldOffset += len;
+        }
+        return pax;
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /** Return a view of this page before it was modified -- used by recovery */
+    public PaxPage getBeforeImage() {
+        try {
+            byte[] before = oldData;
+            if (before == null) {
+                before = data;
+                shared = true;
+            }
+            return new PaxPage(pid, before);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = null;
+    }
+
+    /**
+     * Saves the before image and copies the page if its bytes are shared.
+     * Called before every change to this page.
+     */
+    private void beforeChange() {
+        if (oldData == null) {
+            oldData = data;
+            shared = true;
+        }
+        if (shared) {
+            data = data.clone();
+            shared = false;
+        }
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtyTid = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtyTid;
+    }
+
+    public int getNumEmptySlots() {
+        int used = 0;
+        for (int a = 0; a < headerSize; a++)
+            used += Integer.bitCount(data[a] & 0xff);
+        return numSlots - used;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < numSlots && ((data[i / 8] >> (i % 8)) & 1) == 1;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        byte bit = (byte)(1 << (i % 8));
+        if (value)
+            data[i / 8] |= bit;
+        else
+            data[i / 8] &= ~bit;
+    }
+
+    /**
+     * Adds the specified tuple to the first empty slot of the page.
+     *
+     * @throws DbException if the page is full or the TupleDesc does not match
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("TupleDesc does not match");
+        int slot = 0;
+        while (slot < numSlots && isSlotUsed(slot))
+            slot++;
+        if (slot == numSlots)
+            throw new DbException("the page is full");
+
+        byte[][] values = new byte[td.numFields()][];
+        for (int j = 0; j < values.length; j++) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try {
+                t.getField(j).serialize(new DataOutputStream(baos));
+            } catch (IOException e) {
+                throw new DbException("could not encode tuple: " + e.getMessage());
+            }
+            values[j] = baos.toByteArray();
+            if (values[j].length != td.getFieldType(j).getLen())
+                throw new DbException("tuple does not fit its slot");
+        }
+        beforeChange();
+        for (int j = 0; j < values.length; j++)
+            System.arraycopy(values[j], 0, data,
+                    columnStart[j] + slot * values[j].length, values[j].length);
+        markSlotUsed(slot, true);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Deletes the specified tuple from the page.
+     *
+     * @throws DbException if this tuple is not on this page, or its slot is
+     *         already empty
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("Tuple is not on this page");
+        int slot = rid.tupleno();
+        if (!isSlotUsed(slot))
+            throw new DbException("Tuple slot is empty");
+        beforeChange();
+        markSlotUsed(slot, false);
+        for (int j = 0; j < columnStart.length; j++) {
+            int len = td.getFieldType(j).getLen();
+            Arrays.fill(data, columnStart[j] + slot * len, columnStart[j] + (slot + 1) * len,
+                    (byte)0);
+        }
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     *         this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        int[] all = new int[td.numFields()];
+        for (int j = 0; j < all.length; j++)
+            all[j] = j;
+        return iterator(all, td);
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page that only decodes the
+     * specified columns. The tuples have the TupleDesc projected and carry
+     * the RecordId of the stored tuple.
+     *
+     * @param columns the indexes of the columns to read, in output order
+     * @param projected the TupleDesc of the returned tuples: the types of
+     *        columns, in the same order
+     */
+    public Iterator<Tuple> iterator(final int[] columns, final TupleDesc projected) {
+        // the tuples are read from this array; a later change must copy it
+        shared = true;
+        final ByteBuffer buf = ByteBuffer.wrap(data);
+        return new Iterator<Tuple>() {
+            private int next = advance(0);
+
+            private int advance(int from) {
+                while (from < numSlots && ((buf.get(from / 8) >> (from % 8)) & 1) == 0)
+                    from++;
+                return from;
+            }
+
+            public boolean hasNext() {
+                return next < numSlots;
+            }
+
+            public Tuple next() {
+                if (next >= numSlots)
+                    throw new NoSuchElementException();
+                Tuple t = new Tuple(projected);
+                for (int k = 0; k < columns.length; k++) {
+                    int j = columns[k];
+                    Type type = td.getFieldType(j);
+                    t.setField(k, type.parse(buf, columnStart[j] + next * type.getLen()));
+                }
+                t.setRecordId(new RecordId(pid, next));
+                next = advance(next + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
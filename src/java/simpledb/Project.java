@@ -11,6 +11,8 @@ public class Project extends Operator {
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
+    /* the output tuple overwritten for every row when tuples are reused */
+    private Tuple reused;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -48,6 +50,7 @@ public class Project extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
+        reused = Tuple.isReuseEnabled() ? new Tuple(td) : null;
         super.open();
     }
 
@@ -70,7 +73,7 @@ public class Project extends Operator {
             TransactionAbortedException, DbException {
         while (child.hasNext()) {
             Tuple t = child.next();
-            Tuple newTuple = new Tuple(td);
+            Tuple newTuple = reused != null ? reused : new Tuple(td);
             newTuple.setRecordId(t.getRecordId());
             for (int i = 0; i < td.numFields(); i++) {
                 newTuple.setField(i, t.getField(outFieldIds.get(i)));
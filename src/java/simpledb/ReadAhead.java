@@ -0,0 +1,131 @@
+package simpledb;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * ReadAhead reads the pages a sequential scan is about to ask for into the
+ * BufferPool on background threads, so the scan does not stall on a disk read
+ * at every page boundary.
+ * <p>
+ * Each scan owns a {@link Stream} and reports every page it requests. As long
+ * as the requests are consecutive, the stream keeps up to a window of pages
+ * ahead of the scan in flight. The window adapts to how fast the scan
+ * consumes pages. It doubles when the scan catches up with pages that have
+ * not been read yet, and it halves when a prefetched page was evicted before
+ * the scan reached it. The window never exceeds a quarter of the
+ * BufferPool, so read-ahead cannot push out more than that much of the pool
+ * ahead of the scan.
+ */
+public class ReadAhead {
+
+    /** Initial and smallest read-ahead window, in pages. */
+    public static final int MIN_WINDOW = 2;
+    /** Largest read-ahead window, in pages. */
+    public static final int MAX_WINDOW = 64;
+    /** Number of background reader threads. */
+    public static final int NUM_THREADS = 2;
+
+    private static ExecutorService executor;
+
+    private static synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(NUM_THREADS, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-readahead");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * The read-ahead state of one scan over one file. A stream is used by a
+     * single scan thread; only {@link #loadedUpTo} and {@link #inFlight} are
+     * shared with the background reader.
+     */
+    public static class Stream {
+        private final int tableId;
+        private final HeapFile file;
+        private int lastPage = -1;
+        /* pages below frontier have been handed to a reader */
+        private int frontier = 0;
+        private int window = MIN_WINDOW;
+        /* pages below loadedUpTo have been read in by a reader */
+        private volatile int loadedUpTo = 0;
+        private volatile boolean inFlight = false;
+
+        /**
+         * @param file the file being scanned
+         */
+        public Stream(HeapFile file) {
+            this.file = file;
+            this.tableId = file.getId();
+        }
+
+        /** @return the current read-ahead window, in pages */
+        public int window() {
+            return window;
+        }
+
+        /**
+         * Reports that the scan is about to request page pgNo, and issues
+         * background reads for the pages after it if the access pattern is
+         * sequential. Repeated reports of the same page are ignored.
+         */
+        public void pageRequested(int pgNo) {
+            if (pgNo == lastPage)
+                return;
+            BufferPool bp = Database.getBufferPool();
+            if (pgNo != lastPage + 1) {
+                // a jump: start over from here
+                window = MIN_WINDOW;
+                frontier = pgNo + 1;
+                loadedUpTo = pgNo + 1;
+            } else if (pgNo < frontier) {
+                if (pgNo >= loadedUpTo)
+                    window = Math.min(window * 2, MAX_WINDOW);
+                else if (!bp.isResident(new HeapPageId(tableId, pgNo)))
+                    window = Math.max(window / 2, MIN_WINDOW);
+            } else {
+                frontier = pgNo + 1;
+            }
+            lastPage = pgNo;
+
+            int budget = Math.min(window, bp.getNumPages()
+                    * BufferPool.frameUnits(BufferPool.PAGE_SIZE) / 4
+                    / BufferPool.frameUnits(file.bytesPerPage()));
+            int target = Math.min(pgNo + 1 + budget, file.numPages());
+            if (budget <= 0 || inFlight || frontier >= target)
+                return;
+            final int from = frontier;
+            final int to = target;
+            final BufferPool pool = bp;
+            final boolean cold = bp.isLargeScan(file.numPages(), file.bytesPerPage());
+            frontier = target;
+            inFlight = true;
+            try {
+                executor().execute(new Runnable() {
+                    public void run() {
+                        try {
+                            for (int p = from; p < to; p++) {
+                                if (!pool.prefetchPage(new HeapPageId(tableId, p), cold))
+                                    break;
+                                loadedUpTo = p + 1;
+                            }
+                        } finally {
+                            inFlight = false;
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                inFlight = false;
+                frontier = from;
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which resident page the BufferPool gives up when
+ * it needs a free frame. The BufferPool reports every page it admits, every
+ * hit on a resident page and every page it drops; the policy only has to keep
+ * enough bookkeeping to answer {@link #chooseVictim} quickly.
+ * <p>
+ * Implementations must do O(1) work per access so that the cost of a
+ * getPage call does not grow with the size of the pool.
+ *
+ * @see BufferPool
+ * @see ClockPolicy
+ * @see LruKPolicy
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Lets the BufferPool veto a candidate victim (for example a page that
+     * must not be written back yet).
+     */
+    public interface Evictable {
+        /** @return true if the page with the specified id may be evicted */
+        public boolean canEvict(PageId pid);
+    }
+
+    /**
+     * Called when a page is added to the buffer pool.
+     *
+     * @param pid the id of the page that was read in
+     */
+    public void pageLoaded(PageId pid);
+
+    /**
+     * Called instead of {@link #pageLoaded} when a page is read by a large
+     * sequential scan and is not expected to be used again soon. The page
+     * goes to the cold end of the replacement order, so it is evicted before
+     * any page that was loaded normally, unless it is accessed again first.
+     *
+     * @param pid the id of the page that was read in
+     * @see BufferPool#isLargeScan
+     */
+    public void pageLoadedCold(PageId pid);
+
+    /**
+     * Called on every buffer pool hit.
+     *
+     * @param pid the id of the resident page that was requested
+     */
+    public void pageAccessed(PageId pid);
+
+    /**
+     * Called when a page leaves the buffer pool, either because it was
+     * evicted or because it was discarded.
+     *
+     * @param pid the id of the page that was removed
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Pick the page that should be evicted next. The page is not removed
+     * from the policy; the BufferPool calls {@link #pageRemoved} once it has
+     * actually dropped the page.
+     *
+     * @param filter decides whether a candidate may be evicted
+     * @return the id of the victim, or null if no resident page can be evicted
+     */
+    public PageId chooseVictim(Evictable filter);
+}
@@ -8,7 +8,7 @@ public class SimpleDb {
         // convert a file
         if(args[0].equals("convert")) {
         try {
-            if (args.length<3 || args.length>5){
+            if (args.length<3 || args.length>6){
                 System.err.println("Unexpected number of arguments to convert ");
                 return;
             }
@@ -17,6 +17,7 @@ public class SimpleDb {
             int numOfAttributes=Integer.parseInt(args[2]);
             Type[] ts = new Type[numOfAttributes];
             char fieldSeparator=',';
+            int pageSize=BufferPool.PAGE_SIZE;
 
             if (args.length == 3) 
                 for (int i=0;i<numOfAttributes;i++)
@@ -40,12 +41,15 @@ public class SimpleDb {
                                 return;
                             }
                 }
-                if (args.length==5)
+                if (args.length>=5)
                     fieldSeparator=args[4].charAt(0);
+                // must match the pagesize= option of the table in the catalog
+                if (args.length==6)
+                    pageSize=Integer.parseInt(args[5]);
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.PAGE_SIZE,numOfAttributes,ts,fieldSeparator);
+            ParallelHeapFileEncoder.convert(sourceTxtFile,targetDatFile,
+                        pageSize,numOfAttributes,ts,fieldSeparator);
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -68,6 +72,15 @@ public class SimpleDb {
                it.close();
             }
         }
+        else if (args[0].equals("compress")) {
+            // compress <file.dat> <file.cdat> [pagesize]
+            if (args.length<3 || args.length>4){
+                System.err.println("Unexpected number of arguments to compress ");
+                return;
+            }
+            int pageSize = args.length==4 ? Integer.parseInt(args[3]) : BufferPool.PAGE_SIZE;
+            CompressedHeapFile.compress(new File(args[1]), new File(args[2]), pageSize);
+        }
         else if (args[0].equals("parser")) {
             // Strip the first argument and call the parser
             String[] newargs = new String[args.length-1];
@@ -0,0 +1,39 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * SlottedHeapFile is a HeapFile whose pages are {@link SlottedPage}s, which
+ * store each tuple as a variable-length record. Tables of short strings take
+ * a fraction of the space (and I/O) they take in the fixed-width HeapPage
+ * format. Tuples are addressed by page and slot as in a HeapFile, so the
+ * BufferPool, the free-space map and the scan work unchanged.
+ * <p>
+ * A slotted table is filled by inserting tuples; the text-file converters
+ * write the fixed-width format.
+ *
+ * @see SlottedPage
+ */
+public class SlottedHeapFile extends HeapFile {
+
+    private static final long serialVersionUID = 1L;
+
+    public SlottedHeapFile(File f, TupleDesc td) {
+        this(f, td, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * @param pageSize the number of bytes per page, at most
+     *        {@link SlottedPage#MAX_PAGE_SIZE}
+     */
+    public SlottedHeapFile(File f, TupleDesc td, int pageSize) {
+        super(f, td, pageSize);
+        if (pageSize > SlottedPage.MAX_PAGE_SIZE)
+            throw new IllegalArgumentException("slotted pages hold at most "
+                    + SlottedPage.MAX_PAGE_SIZE + " bytes");
+    }
+
+    protected TuplePage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new SlottedPage(pid, data);
+    }
+}
@@ -0,0 +1,366 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * SlottedPage is a page of a {@link SlottedHeapFile}. It stores tuples as
+ * variable-length records, so a string takes the bytes of its characters
+ * instead of the fixed {@link Type#STRING_LEN} bytes of a HeapPage.
+ * <p>
+ * The page starts with a header and a slot directory that grows towards the
+ * end of the page; the records are stored from the end of the page towards
+ * the directory. All numbers are unsigned 16-bit values, so a page holds at
+ * most {@link #MAX_PAGE_SIZE} bytes:
+ * <pre>
+ *   bytes 0-1       number of slots in the directory
+ *   bytes 2-3       number of bytes at the end of the page used for records
+ *   bytes 4+4i      offset of the record of slot i, or 0 if the slot is empty
+ *   bytes 6+4i      length of the record of slot i
+ * </pre>
+ * A record holds its fields in order: an int as 4 bytes, a string as one
+ * length byte followed by its characters. A page of all zeros is empty.
+ * <p>
+ * A tuple keeps its slot for as long as it is on the page, so its RecordId
+ * stays valid. Deleting a tuple leaves a hole in the record area; the
+ * records are moved together when an insert needs the space, without
+ * changing their slots.
+ *
+ * @see SlottedHeapFile
+ */
+public class SlottedPage implements TuplePage {
+
+    /** Largest page size the 16-bit offsets of the format can address. */
+    public static final int MAX_PAGE_SIZE = 65536;
+
+    static final int HEADER_SIZE = 4;
+    static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final int pageSize;
+    /* the largest record a tuple of td can need */
+    final int maxRecordSize;
+
+    byte[] data;
+    /* true if data is seen by an iterator or the before image */
+    boolean shared;
+    /* the before image; null if it is the current contents */
+    byte[] oldData;
+    TransactionId dirtyTid;
+
+    /* sum of the lengths of the records in use */
+    int liveBytes;
+
+    /**
+     * Create a SlottedPage from the bytes of a page read from disk, in the
+     * format described above. The page size is the length of data.
+     *
+     * @throws IOException if data is not a valid page
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = data.length;
+        this.maxRecordSize = maxRecordSize(td);
+        this.data = data;
+        this.shared = true;
+        this.oldData = data;
+        if (pageSize > MAX_PAGE_SIZE || pageSize < HEADER_SIZE)
+            throw new IOException("invalid slotted page size: " + pageSize);
+        int slots = numSlots();
+        if (HEADER_SIZE + slots * SLOT_SIZE > recordStart())
+            throw new IOException("corrupt slotted page " + id.pageNumber());
+        for (int i = 0; i < slots; i++) {
+            int off = slotOffset(i), len = slotLength(i);
+            if (off != 0 && (off < recordStart() || off + len > pageSize))
+                throw new IOException("corrupt slotted page " + id.pageNumber());
+            if (off != 0)
+                liveBytes += len;
+        }
+    }
+
+    /** @return the largest number of bytes a record of td takes */
+    static int maxRecordSize(TupleDesc td) {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++)
+            size += td.getFieldType(i) == Type.INT_TYPE ? 4 : 1 + Type.STRING_LEN;
+        return size;
+    }
+
+    private int getShort(byte[] b, int at) {
+        return ((b[at] & 0xff) << 8) | (b[at + 1] & 0xff);
+    }
+
+    private void putShort(int at, int v) {
+        data[at] = (byte)(v >> 8);
+        data[at + 1] = (byte)v;
+    }
+
+    private int numSlots() {
+        return getShort(data, 0);
+    }
+
+    /** @return the offset of the first byte of the record area */
+    private int recordStart() {
+        return pageSize - getShort(data, 2);
+    }
+
+    private int slotOffset(int i) {
+        return getShort(data, HEADER_SIZE + i * SLOT_SIZE);
+    }
+
+    private int slotLength(int i) {
+        return getShort(data, HEADER_SIZE + i * SLOT_SIZE + 2);
+    }
+
+    private void setSlot(int i, int offset, int length) {
+        putShort(HEADER_SIZE + i * SLOT_SIZE, offset);
+        putShort(HEADER_SIZE + i * SLOT_SIZE + 2, length);
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /** Return a view of this page before it was modified -- used by recovery */
+    public SlottedPage getBeforeImage() {
+        try {
+            byte[] before = oldData;
+            if (before == null) {
+                before = data;
+                shared = true;
+            }
+            return new SlottedPage(pid, before);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = null;
+    }
+
+    /**
+     * Saves the before image and copies the page if its bytes are shared.
+     * Called before every change to this page.
+     */
+    private void beforeChange() {
+        if (oldData == null) {
+            oldData = data;
+            shared = true;
+        }
+        if (shared) {
+            data = data.clone();
+            shared = false;
+        }
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * Generates the bytes of an empty SlottedPage of the specified size.
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
+    }
+
+    /**
+     * Returns the number of tuples of the largest possible size that still
+     * fit on this page, counting the space of deleted records.
+     */
+    public int getNumEmptySlots() {
+        int free = pageSize - HEADER_SIZE - numSlots() * SLOT_SIZE - liveBytes;
+        return Math.max(0, free) / (maxRecordSize + SLOT_SIZE);
+    }
+
+    /**
+     * Returns true if the specified slot of this page holds a tuple.
+     */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < numSlots() && slotOffset(i) != 0;
+    }
+
+    /**
+     * Adds the specified tuple to the page, in the first empty slot.
+     *
+     * @throws DbException if the tuple does not fit or its TupleDesc does not
+     *         match the table's
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("TupleDesc does not match");
+        byte[] record = encode(t);
+
+        int slots = numSlots();
+        int slot = 0;
+        while (slot < slots && slotOffset(slot) != 0)
+            slot++;
+        int directory = HEADER_SIZE + Math.max(slots, slot + 1) * SLOT_SIZE;
+        if (directory + liveBytes + record.length > pageSize)
+            throw new DbException("the page is full");
+
+        beforeChange();
+        if (recordStart() - directory < record.length)
+            compact();
+        int offset = recordStart() - record.length;
+        System.arraycopy(record, 0, data, offset, record.length);
+        putShort(2, pageSize - offset);
+        if (slot == slots)
+            putShort(0, slots + 1);
+        setSlot(slot, offset, record.length);
+        liveBytes += record.length;
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Moves the records in use to the end of the page, closing the holes
+     * left by deleted records. Slots keep their numbers.
+     */
+    private void compact() {
+        byte[] old = data.clone();
+        int end = pageSize;
+        for (int i = 0; i < numSlots(); i++) {
+            int off = slotOffset(i);
+            if (off == 0)
+                continue;
+            int len = slotLength(i);
+            end -= len;
+            System.arraycopy(old, off, data, end, len);
+            setSlot(i, end, len);
+        }
+        Arrays.fill(data, HEADER_SIZE + numSlots() * SLOT_SIZE, end, (byte)0);
+        putShort(2, pageSize - end);
+    }
+
+    /**
+     * Deletes the specified tuple from the page. Its slot becomes free for
+     * a later insert.
+     *
+     * @throws DbException if this tuple is not on this page, or its slot is
+     *         already empty
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("Tuple is not on this page");
+        int slot = rid.tupleno();
+        if (!isSlotUsed(slot))
+            throw new DbException("Tuple slot is empty");
+
+        beforeChange();
+        int off = slotOffset(slot), len = slotLength(slot);
+        Arrays.fill(data, off, off + len, (byte)0);
+        setSlot(slot, 0, 0);
+        liveBytes -= len;
+        // empty slots at the end of the directory give their space back
+        int slots = numSlots();
+        while (slots > 0 && slotOffset(slots - 1) == 0)
+            slots--;
+        putShort(0, slots);
+        if (liveBytes == 0)
+            putShort(2, 0);
+    }
+
+    /** @return the record of t */
+    private byte[] encode(Tuple t) throws DbException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(maxRecordSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                Field f = t.getField(i);
+                if (f == null || f.getType() != td.getFieldType(i))
+                    throw new DbException("field " + i + " does not match the table");
+                if (f.getType() == Type.INT_TYPE) {
+                    dos.writeInt(((IntField)f).getValue());
+                } else {
+                    String s = ((StringField)f).getValue();
+                    if (s.length() > Type.STRING_LEN)
+                        s = s.substring(0, Type.STRING_LEN);
+                    dos.writeByte(s.length());
+                    dos.writeBytes(s);
+                }
+            }
+            dos.flush();
+        } catch (IOException e) {
+            throw new DbException("could not encode tuple: " + e.getMessage());
+        }
+        return baos.toByteArray();
+    }
+
+    /** @return the tuple stored in the record at the specified offset */
+    private Tuple decode(byte[] buf, int offset, int slot) {
+        Tuple t = new Tuple(td);
+        int at = offset;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                int v = ((buf[at] & 0xff) << 24) | ((buf[at + 1] & 0xff) << 16)
+                    | ((buf[at + 2] & 0xff) << 8) | (buf[at + 3] & 0xff);
+                t.setField(i, new IntField(v));
+                at += 4;
+            } else {
+                int len = buf[at] & 0xff;
+                char[] chars = new char[len];
+                for (int c = 0; c < len; c++)
+                    chars[c] = (char)(buf[at + 1 + c] & 0xff);
+                t.setField(i, new StringField(new String(chars), Type.STRING_LEN));
+                at += 1 + len;
+            }
+        }
+        t.setRecordId(new RecordId(pid, slot));
+        return t;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtyTid = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtyTid;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     *         this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        // the tuples are read from this array; a later change must copy it
+        shared = true;
+        final byte[] buf = data;
+        final int slots = numSlots();
+        return new Iterator<Tuple>() {
+            private int next = advance(0);
+
+            private int advance(int from) {
+                while (from < slots && offset(from) == 0)
+                    from++;
+                return from;
+            }
+
+            private int offset(int i) {
+                return getShort(buf, HEADER_SIZE + i * SLOT_SIZE);
+            }
+
+            public boolean hasNext() {
+                return next < slots;
+            }
+
+            public Tuple next() {
+                if (next >= slots)
+                    throw new NoSuchElementException();
+                Tuple t = decode(buf, offset(next), next);
+                next = advance(next + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
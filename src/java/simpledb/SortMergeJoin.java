@@ -0,0 +1,250 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two inputs that are sorted in ascending order on
+ * their join fields. An input that is not known to be sorted (see
+ * {@link #isSortedOn}) is sorted with an {@link OrderBy} first; inputs that
+ * already are, such as an OrderBy or another SortMergeJoin on the same
+ * field, are used as they are.
+ * <p>
+ * Equality joins stream both inputs and hold only the child2 tuples with
+ * the current key. Range and NOT_EQUALS joins read child2 into memory and
+ * find the matches of each child1 tuple from two positions in it that only
+ * move forward. Either way the output is in ascending order of the child1
+ * join field, so a later OrderBy on that field can be dropped.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate pred;
+    private DbIterator child1;
+    private DbIterator child2;
+    private TupleDesc td;
+
+    private transient boolean copy;
+    private transient Tuple reused;
+    /* the child1 tuple being joined */
+    private transient Tuple left;
+
+    /* equality: the child2 tuples whose key equals that of groupLeft, the
+       next one to return, and the first child2 tuple after them */
+    private transient ArrayList<Tuple> group;
+    private transient Tuple groupLeft;
+    private transient int groupIndex;
+    private transient Tuple rightNext;
+
+    /* range: child2 in order, the first tuple whose key is >= and > that
+       of left, and the ranges of it still to be returned */
+    private transient ArrayList<Tuple> rights;
+    private transient int lo, hi;
+    private transient int pos, end, pos2, end2;
+
+    /**
+     * @param p the predicate to join on; any operator but LIKE
+     * @param child1 the left child
+     * @param child2 the right child
+     * @throws IllegalArgumentException if the predicate is LIKE
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (p.getOperator() == Predicate.Op.LIKE)
+            throw new IllegalArgumentException("sort-merge join does not support LIKE");
+        this.pred = p;
+        setChildren(new DbIterator[] { child1, child2 });
+    }
+
+    /**
+     * Returns true if the tuples of the specified iterator are known to be
+     * in ascending order of the specified field.
+     */
+    public static boolean isSortedOn(DbIterator it, int field) {
+        if (it instanceof OrderBy) {
+            OrderBy o = (OrderBy)it;
+            return o.isASC() && o.getOrderByField() == field;
+        }
+        if (it instanceof SortMergeJoin)
+            return ((SortMergeJoin)it).isSortedOn(field);
+        if (it instanceof Filter)
+            return isSortedOn(((Filter)it).getChildren()[0], field);
+        return false;
+    }
+
+    /**
+     * Returns true if the output of this join is in ascending order of the
+     * specified field: the child1 join field, or for an equality join also
+     * the child2 join field.
+     */
+    public boolean isSortedOn(int field) {
+        if (field == pred.getField1())
+            return true;
+        return pred.getOperator() == Predicate.Op.EQUALS
+                && field == child1.getTupleDesc().numFields() + pred.getField2();
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        if (td == null)
+            td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        child1.open();
+        child2.open();
+        copy = Tuple.isReuseEnabled();
+        reused = copy ? new Tuple(getTupleDesc()) : null;
+        if (pred.getOperator() == Predicate.Op.EQUALS) {
+            group = new ArrayList<Tuple>();
+        } else {
+            rights = new ArrayList<Tuple>();
+            while (child2.hasNext()) {
+                Tuple t = child2.next();
+                rights.add(copy ? t.copy() : t);
+            }
+        }
+        reset();
+    }
+
+    private void reset() throws DbException, TransactionAbortedException {
+        left = null;
+        if (group != null) {
+            group.clear();
+            groupLeft = null;
+            rightNext = child2.hasNext() ? child2.next() : null;
+        }
+        lo = hi = 0;
+        pos = end = pos2 = end2 = 0;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        group = null;
+        rights = null;
+        left = groupLeft = rightNext = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        if (group != null)
+            child2.rewind();
+        reset();
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        return group != null ? nextEqual() : nextRange();
+    }
+
+    private Tuple nextEqual() throws TransactionAbortedException, DbException {
+        int f1 = pred.getField1(), f2 = pred.getField2();
+        while (true) {
+            if (left != null && groupIndex < group.size())
+                return joinTuples(left, group.get(groupIndex++));
+            if (!child1.hasNext())
+                return null;
+            left = child1.next();
+            Field key = left.getField(f1);
+            groupIndex = 0;
+            if (groupLeft != null
+                    && key.compare(Predicate.Op.EQUALS, groupLeft.getField(f1)))
+                continue;
+            // the key fields of reused tuples change when their child moves on
+            groupLeft = copy ? left.copy() : left;
+            group.clear();
+            while (rightNext != null
+                    && rightNext.getField(f2).compare(Predicate.Op.LESS_THAN, key))
+                rightNext = child2.hasNext() ? child2.next() : null;
+            while (rightNext != null
+                    && rightNext.getField(f2).compare(Predicate.Op.EQUALS, key)) {
+                group.add(copy ? rightNext.copy() : rightNext);
+                rightNext = child2.hasNext() ? child2.next() : null;
+            }
+        }
+    }
+
+    private Tuple nextRange() throws TransactionAbortedException, DbException {
+        int f1 = pred.getField1(), f2 = pred.getField2();
+        int n = rights.size();
+        while (true) {
+            if (left != null) {
+                if (pos < end)
+                    return joinTuples(left, rights.get(pos++));
+                if (pos2 < end2) {
+                    pos = pos2;
+                    end = end2;
+                    pos2 = end2 = 0;
+                    continue;
+                }
+            }
+            if (!child1.hasNext())
+                return null;
+            left = child1.next();
+            Field key = left.getField(f1);
+            while (lo < n && rights.get(lo).getField(f2).compare(Predicate.Op.LESS_THAN, key))
+                lo++;
+            if (hi < lo)
+                hi = lo;
+            while (hi < n && !rights.get(hi).getField(f2).compare(Predicate.Op.GREATER_THAN, key))
+                hi++;
+            pos = 0;
+            end = n;
+            pos2 = end2 = 0;
+            switch (pred.getOperator()) {
+            case LESS_THAN:
+                pos = hi;
+                break;
+            case LESS_THAN_OR_EQ:
+                pos = lo;
+                break;
+            case GREATER_THAN:
+                end = lo;
+                break;
+            case GREATER_THAN_OR_EQ:
+                end = hi;
+                break;
+            default: // NOT_EQUALS
+                end = lo;
+                pos2 = hi;
+                end2 = n;
+                break;
+            }
+        }
+    }
+
+    private Tuple joinTuples(Tuple l, Tuple r) {
+        int n1 = l.getTupleDesc().numFields();
+        int n2 = r.getTupleDesc().numFields();
+        Tuple t = reused != null ? reused : new Tuple(getTupleDesc());
+        for (int i = 0; i < n1; i++)
+            t.setField(i, l.getField(i));
+        for (int i = 0; i < n2; i++)
+            t.setField(n1 + i, r.getField(i));
+        return t;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    /**
+     * Sets the children of this join, sorting those that are not already
+     * sorted on their join field.
+     */
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = isSortedOn(children[0], pred.getField1()) ? children[0]
+                : new OrderBy(pred.getField1(), true, children[0]);
+        child2 = isSortedOn(children[1], pred.getField2()) ? children[1]
+                : new OrderBy(pred.getField2(), true, children[1]);
+        td = null;
+    }
+}
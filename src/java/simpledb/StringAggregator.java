@@ -22,10 +22,11 @@ public class StringAggregator implements Aggregator {
     private Type mgbfieldtype;
     private Op mop;
 
-    // Since gfield = null wont have two parameters we use different data structes
+    // only COUNT is supported, so a running count per group is all that
+    // has to be kept
 
-    HashMap<Field,ArrayList<Field>> withgrouping;
-    ArrayList<Field> nogrouping;
+    HashMap<Field,long[]> withgrouping;
+    long nogrouping;
 
 
     public StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
@@ -34,10 +35,8 @@ public class StringAggregator implements Aggregator {
         mgbfieldtype=gbfieldtype;
         mafield = afield;
         mop=what;
-        if(mgbfield==Aggregator.NO_GROUPING)
-            nogrouping=new ArrayList<Field>();
-        else
-            withgrouping= new HashMap<Field,ArrayList<Field>>();
+        if(mgbfield!=Aggregator.NO_GROUPING)
+            withgrouping= new HashMap<Field,long[]>();
     }
 
     /**
@@ -47,19 +46,19 @@ public class StringAggregator implements Aggregator {
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
         if(mgbfield==Aggregator.NO_GROUPING)
-            nogrouping.add(tup.getField(mafield));
+            nogrouping++;
         else{
             Field grouvalue = tup.getField(mgbfield);
-            Field aggregatevalue = tup.getField(mafield);
-            ArrayList<Field> agglist = withgrouping.get(grouvalue);
-            if(agglist==null)
+            long[] count = withgrouping.get(grouvalue);
+            if(count==null)
             {
-                agglist = new ArrayList<Field>();
-                agglist.add(aggregatevalue);
+                // the key is kept; a reused IntField would change under it
+                if (Tuple.isReuseEnabled() && grouvalue instanceof IntField)
+                    grouvalue = new IntField(((IntField)grouvalue).getValue());
+                count = new long[1];
+                withgrouping.put(grouvalue,count);
             } 
-            else
-                agglist.add(aggregatevalue);
-            withgrouping.put(grouvalue,agglist);     
+            count[0]++;
             }
     }
 
@@ -74,7 +73,7 @@ public class StringAggregator implements Aggregator {
     public DbIterator iterator() {
         // some code goes here
         if(mgbfield==Aggregator.NO_GROUPING){
-            int result = nogrouping.size();
+            int result = (int)nogrouping;
             TupleDesc desc = new TupleDesc(new Type[]{Type.INT_TYPE});
             Tuple t = new Tuple(desc);
             t.setField(0, new IntField(result));
@@ -86,16 +85,10 @@ public class StringAggregator implements Aggregator {
             ArrayList<Tuple> finalans = new ArrayList<Tuple>();
             TupleDesc desc = new TupleDesc(new Type[]{mgbfieldtype, Type.INT_TYPE});
 
-            Collection<Field> keys = withgrouping.keySet();
-            Iterator<Field> keyiter = keys.iterator();
-            while(keyiter.hasNext()){
-                Field val = keyiter.next();
-                ArrayList<Field> valuesList = withgrouping.get(val);
-                int aggResult = valuesList.size();
-
+            for (Map.Entry<Field,long[]> e : withgrouping.entrySet()) {
                 Tuple t = new Tuple(desc);
-                t.setField(0, val);
-                t.setField(1, new IntField(aggResult));
+                t.setField(0, e.getKey());
+                t.setField(1, new IntField((int)e.getValue()[0]));
                 finalans.add(t);
             }
 
@@ -0,0 +1,50 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * StripedCounter is a counter that many threads can add to without
+ * contending on one memory location. Each thread adds to one of several
+ * cells, chosen by its thread id, and each cell sits on its own cache line;
+ * {@link #sum} adds up the cells. The sum is not an atomic snapshot: adds
+ * that run concurrently with it may or may not be counted.
+ */
+public class StripedCounter {
+
+    /* longs per cell: one 128-byte line, so two cells never share a line */
+    private static final int PAD = 16;
+    private static final int STRIPES;
+
+    static {
+        int n = 1;
+        while (n < 2 * Runtime.getRuntime().availableProcessors() && n < 64)
+            n <<= 1;
+        STRIPES = n;
+    }
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+    private static int stripe() {
+        long id = Thread.currentThread().getId();
+        int h = (int)(id * 0x9E3779B97F4A7C15L >>> 32);
+        return (h & (STRIPES - 1)) * PAD;
+    }
+
+    /** Adds x to the counter. */
+    public void add(long x) {
+        cells.getAndAdd(stripe(), x);
+    }
+
+    /** Adds one to the counter. */
+    public void increment() {
+        add(1);
+    }
+
+    /** @return the sum of everything added so far */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++)
+            sum += cells.get(i * PAD);
+        return sum;
+    }
+}
@@ -66,6 +66,10 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    private final int ioCostPerPage;
+    private int numPages;
+    private int numTuples;
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
@@ -85,6 +89,31 @@ public class TableStats {
         // necessarily have to (for example) do everything
         // in a single scan of the table.
         // some code goes here
+        this.ioCostPerPage = ioCostPerPage;
+        DbFile file = Database.getCatalog().getDbFile(tableid);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        try {
+            it.open();
+            while (it.hasNext()) {
+                it.next();
+                numTuples++;
+            }
+            it.close();
+            Database.getBufferPool().transactionComplete(tid);
+        } catch (DbException e) {
+            throw new RuntimeException("could not scan table " + tableid, e);
+        } catch (TransactionAbortedException e) {
+            throw new RuntimeException("could not scan table " + tableid, e);
+        } catch (java.io.IOException e) {
+            throw new RuntimeException("could not scan table " + tableid, e);
+        }
+        if (file instanceof HeapFile) {
+            numPages = ((HeapFile)file).numPages();
+        } else {
+            long bytes = (long)numTuples * file.getTupleDesc().getSize();
+            numPages = (int)((bytes + file.bytesPerPage() - 1) / file.bytesPerPage());
+        }
     }
 
     /**
@@ -101,7 +130,7 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // some code goes here
-        return 0;
+        return (double)numPages * ioCostPerPage;
     }
 
     /**
@@ -115,7 +144,7 @@ public class TableStats {
      */
     public int estimateTableCardinality(double selectivityFactor) {
         // some code goes here
-        return 0;
+        return (int)Math.ceil(numTuples * selectivityFactor);
     }
 
     /**
@@ -156,7 +185,7 @@ public class TableStats {
      * */
     public int totalTuples() {
         // some code goes here
-        return 0;
+        return numTuples;
     }
 
 }
@@ -8,10 +8,35 @@ import java.util.Iterator;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * When tuple reuse is enabled (see {@link #setReuseEnabled}), scans and
+ * operators hand out the same Tuple object for every row, and overwrite it
+ * and its IntFields in place. Such a tuple is only valid until the next
+ * call to next() or hasNext() on the iterator that returned it; an operator
+ * that keeps rows, like OrderBy or an aggregate, keeps a {@link #copy}.
+ * Enable reuse with the system property simpledb.ReuseTuples, for example
+ * -Dsimpledb.ReuseTuples on the command line.
  */
 public class Tuple implements Serializable {
 
     private static final long serialVersionUID = 1L;
+
+    private static volatile boolean reuse =
+            System.getProperty("simpledb.ReuseTuples") != null;
+
+    /** @return true if iterators opened now reuse their output tuples */
+    public static boolean isReuseEnabled() {
+        return reuse;
+    }
+
+    /**
+     * Turns tuple reuse on or off for iterators opened after this call.
+     * Iterators that are already open keep their mode.
+     */
+    public static void setReuseEnabled(boolean enabled) {
+        reuse = enabled;
+    }
+
     private TupleDesc m_td;
     private RecordId m_rid;
     private Field[] m_fields;
@@ -88,6 +113,23 @@ public class Tuple implements Serializable {
 
     }
 
+    /**
+     * Returns a copy of this tuple that stays valid when this tuple is
+     * reused: a plain Tuple with the same RecordId and values, with fresh
+     * IntFields.
+     */
+    public Tuple copy() {
+        Tuple t = new Tuple(m_td);
+        for (int i = 0; i < m_fields.length; i++) {
+            Field f = getField(i);
+            if (f instanceof IntField)
+                f = new IntField(((IntField)f).getValue());
+            t.m_fields[i] = f;
+        }
+        t.m_rid = getRecordId();
+        return t;
+    }
+
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
@@ -101,9 +143,9 @@ public class Tuple implements Serializable {
        // throw new UnsupportedOperationException("Implement this");
         String s = "";
         for (int i = 0; i < m_fields.length-1; i++){
-            s += m_fields[i] + "\t";
+            s += getField(i) + "\t";
         }
-        s += m_fields[m_fields.length-1] + "\n";
+        s += getField(m_fields.length-1) + "\n";
         return s;
 
 }
@@ -115,6 +157,10 @@ public class Tuple implements Serializable {
     public Iterator<Field> fields()
     {
         // some code goes here
-        return Arrays.asList(m_fields).iterator();
+        // go through getField, which subclasses may compute lazily
+        Field[] all = new Field[m_fields.length];
+        for (int i = 0; i < all.length; i++)
+            all[i] = getField(i);
+        return Arrays.asList(all).iterator();
     }
 }
@@ -0,0 +1,168 @@
+package simpledb;
+
+/**
+ * TupleBatch holds up to {@link #capacity} rows of a TupleDesc column by
+ * column: an int[] per int column and a String[] per string column. Rows
+ * 0 to size()-1 hold values; the selection vector lists, in ascending
+ * order, the rows that are still part of the result, so a filter drops a
+ * row by leaving it out of the selection instead of moving any values.
+ * <p>
+ * A batch returned by {@link BatchIterator#nextBatch} belongs to the
+ * iterator that returned it, which fills it again on the next call.
+ *
+ * @see BatchIterator
+ */
+public class TupleBatch {
+
+    /** Number of rows of the batches the batch operators produce. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private TupleDesc td;
+    private final int capacity;
+    private int[][] ints;
+    private String[][] strings;
+    private int size;
+    private int[] sel;
+    private int numSelected;
+
+    /**
+     * Creates an empty batch with room for capacity rows of the specified
+     * TupleDesc.
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = new int[td.numFields()][];
+        this.strings = new String[td.numFields()][];
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE)
+                ints[j] = new int[capacity];
+            else
+                strings[j] = new String[capacity];
+        }
+        this.sel = new int[capacity];
+    }
+
+    /**
+     * Creates a batch that will be pointed at the columns of other batches
+     * by {@link #viewOf}; it has no columns of its own.
+     */
+    TupleBatch(TupleDesc td) {
+        this.td = td;
+        this.capacity = 0;
+        this.ints = new int[td.numFields()][];
+        this.strings = new String[td.numFields()][];
+    }
+
+    /**
+     * Makes this batch show the specified columns of another batch, in the
+     * specified order, with the other batch's rows and selection. Nothing is
+     * copied: the view is valid as long as the other batch is.
+     */
+    void viewOf(TupleBatch in, int[] columns) {
+        for (int k = 0; k < columns.length; k++) {
+            ints[k] = in.ints[columns[k]];
+            strings[k] = in.strings[columns[k]];
+        }
+        size = in.size;
+        sel = in.sel;
+        numSelected = in.numSelected;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the maximum number of rows of this batch */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return the number of rows that hold values */
+    public int size() {
+        return size;
+    }
+
+    /** @return the values of an int column, indexed by row */
+    public int[] ints(int column) {
+        return ints[column];
+    }
+
+    /** @return the values of a string column, indexed by row */
+    public String[] strings(int column) {
+        return strings[column];
+    }
+
+    /**
+     * @return the selection vector; its first numSelected() entries are the
+     *         selected rows
+     */
+    public int[] selection() {
+        return sel;
+    }
+
+    /** @return the number of selected rows */
+    public int numSelected() {
+        return numSelected;
+    }
+
+    /** Keeps only the first n entries of the selection vector. */
+    public void setNumSelected(int n) {
+        numSelected = n;
+    }
+
+    /** Empties the batch, so it can be filled again. */
+    public void clear() {
+        size = 0;
+        numSelected = 0;
+    }
+
+    /** Sets the number of rows that hold values and selects all of them. */
+    public void setSizeAndSelectAll(int n) {
+        for (int i = numSelected == size ? size : 0; i < n; i++)
+            sel[i] = i;
+        size = n;
+        numSelected = n;
+    }
+
+    /** @return true if no more rows fit */
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Appends a tuple as a new, selected row.
+     *
+     * @throws IllegalStateException if the batch is full
+     */
+    public void append(Tuple t) {
+        if (size == capacity)
+            throw new IllegalStateException("batch is full");
+        for (int j = 0; j < ints.length; j++) {
+            if (ints[j] != null)
+                ints[j][size] = ((IntField)t.getField(j)).getValue();
+            else
+                strings[j][size] = ((StringField)t.getField(j)).getValue();
+        }
+        setSizeAndSelectAll(size + 1);
+    }
+
+    /**
+     * Copies a row of this batch into a tuple with this batch's TupleDesc.
+     * IntFields of the tuple are overwritten in place when they are there
+     * already, so a reused tuple is filled without allocating.
+     */
+    public void copyRow(int row, Tuple t, boolean reuseFields) {
+        for (int j = 0; j < ints.length; j++) {
+            if (ints[j] != null) {
+                Field f = t.getField(j);
+                if (reuseFields && f != null)
+                    ((IntField)f).setValue(ints[j][row]);
+                else
+                    t.setField(j, new IntField(ints[j][row]));
+            } else {
+                t.setField(j, new StringField(strings[j][row], Type.STRING_LEN));
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package simpledb;
+
+import java.util.Iterator;
+
+/**
+ * TuplePage is the interface of the pages of a {@link HeapFile}: pages that
+ * store the tuples of a table in no particular order and address them by slot
+ * number, so that a tuple's {@link RecordId} is its page and slot. HeapFile
+ * uses only these methods, so a subclass of HeapFile can store its tuples in
+ * a different page format.
+ *
+ * @see HeapPage
+ * @see HeapFile#createPage
+ */
+public interface TuplePage extends Page {
+
+    public HeapPageId getId();
+
+    /**
+     * Adds the specified tuple to the page; the tuple's RecordId is set to
+     * its new location.
+     *
+     * @throws DbException if the tuple does not fit on the page or its
+     *         TupleDesc does not match the table's
+     */
+    public void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Deletes the specified tuple from the page.
+     *
+     * @throws DbException if the tuple is not on this page, or its slot is
+     *         already empty
+     */
+    public void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * Returns the number of empty slots of this page. Pages whose tuples vary
+     * in size return how many tuples of the largest possible size still fit,
+     * so that any tuple can be inserted if the result is not zero. The value
+     * is what the {@link FreeSpaceMap} records.
+     */
+    public int getNumEmptySlots();
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     *         this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator();
+}
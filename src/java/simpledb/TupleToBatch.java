@@ -0,0 +1,47 @@
+package simpledb;
+
+/**
+ * TupleToBatch feeds the tuples of a tuple-at-a-time {@link DbIterator} to
+ * batch operators, copying them into batches of
+ * {@link TupleBatch#DEFAULT_CAPACITY} rows.
+ *
+ * @see BatchToTuple
+ */
+public class TupleToBatch implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final DbIterator child;
+    private transient TupleBatch batch;
+
+    public TupleToBatch(DbIterator child) {
+        this.child = child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = new TupleBatch(child.getTupleDesc(), TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null)
+            throw new IllegalStateException("TupleToBatch not yet open");
+        batch.clear();
+        while (!batch.isFull() && child.hasNext())
+            batch.append(child.next());
+        return batch.size() == 0 ? null : batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+        batch = null;
+    }
+}
@@ -0,0 +1,157 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BatchTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(3, 5000, 100, null, tuples);
+        tid = new TransactionId();
+    }
+
+    /**
+     * A batch scan, filter and projection return the same rows as their
+     * tuple-at-a-time counterparts, across many batches.
+     */
+    @Test public void scanFilterProject() throws Exception {
+        SystemTestUtil.matchTuples(new BatchToTuple(new BatchScan(tid, hf.getId(), "t")), tuples);
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) >= 30 && t.get(0) != 7) {
+                ArrayList<Integer> row = new ArrayList<Integer>();
+                row.add(t.get(2));
+                row.add(t.get(1));
+                expected.add(row);
+            }
+        }
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        fields.add(2);
+        fields.add(1);
+        BatchIterator plan = new BatchProject(fields,
+                new BatchFilter(new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(7)),
+                new BatchFilter(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(30)),
+                new BatchScan(tid, hf.getId(), "t"))));
+        assertEquals(2, plan.getTupleDesc().numFields());
+        SystemTestUtil.matchTuples(new BatchToTuple(plan), expected);
+    }
+
+    /**
+     * BatchAggregate computes each aggregate per group, and over all rows.
+     */
+    @Test public void aggregate() throws Exception {
+        for (Aggregator.Op op : Aggregator.Op.values()) {
+            Map<Integer,long[]> groups = new HashMap<Integer,long[]>();
+            long[] all = { 0, 0, Integer.MAX_VALUE, Integer.MIN_VALUE };
+            for (ArrayList<Integer> t : tuples) {
+                long[] g = groups.get(t.get(0));
+                if (g == null) {
+                    g = new long[] { 0, 0, Integer.MAX_VALUE, Integer.MIN_VALUE };
+                    groups.put(t.get(0), g);
+                }
+                for (long[] acc : new long[][] { g, all }) {
+                    int v = t.get(2);
+                    acc[0]++;
+                    acc[1] += v;
+                    acc[2] = Math.min(acc[2], v);
+                    acc[3] = Math.max(acc[3], v);
+                }
+            }
+            ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+            for (Map.Entry<Integer,long[]> e : groups.entrySet()) {
+                ArrayList<Integer> row = new ArrayList<Integer>();
+                row.add(e.getKey());
+                row.add(expected(op, e.getValue()));
+                expected.add(row);
+            }
+            SystemTestUtil.matchTuples(new BatchToTuple(new BatchAggregate(
+                    new BatchScan(tid, hf.getId(), "t"), 2, 0, op)), expected);
+
+            ArrayList<ArrayList<Integer>> total = new ArrayList<ArrayList<Integer>>();
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(expected(op, all));
+            total.add(row);
+            SystemTestUtil.matchTuples(new BatchToTuple(new BatchAggregate(
+                    new BatchScan(tid, hf.getId(), "t"), 2, Aggregator.NO_GROUPING, op)), total);
+        }
+    }
+
+    private static int expected(Aggregator.Op op, long[] acc) {
+        switch (op) {
+        case COUNT: return (int)acc[0];
+        case SUM: return (int)acc[1];
+        case AVG: return (int)(acc[1] / acc[0]);
+        case MIN: return (int)acc[2];
+        default: return (int)acc[3];
+        }
+    }
+
+    /**
+     * Without grouping and without input rows, BatchAggregate returns 0 for
+     * COUNT and SUM and no row for the other aggregates.
+     */
+    @Test public void aggregateEmptyInput() throws Exception {
+        HeapFile empty = SystemTestUtil.createRandomHeapFile(3, 0, null, null);
+        for (Aggregator.Op op : Aggregator.Op.values()) {
+            ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+            if (op == Aggregator.Op.COUNT || op == Aggregator.Op.SUM) {
+                ArrayList<Integer> row = new ArrayList<Integer>();
+                row.add(0);
+                expected.add(row);
+            }
+            SystemTestUtil.matchTuples(new BatchToTuple(new BatchAggregate(
+                    new BatchScan(tid, empty.getId(), "e"), 2, Aggregator.NO_GROUPING, op)),
+                    expected);
+        }
+    }
+
+    /**
+     * BatchHashJoin returns every matching pair, also when one probe row
+     * has more matches than fit in the rest of an output batch, and works
+     * on a tuple-at-a-time child through TupleToBatch.
+     */
+    @Test public void hashJoin() throws Exception {
+        ArrayList<ArrayList<Integer>> small = new ArrayList<ArrayList<Integer>>();
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 300, 20, null, small);
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            for (ArrayList<Integer> s : small) {
+                if (t.get(1).equals(s.get(0))) {
+                    ArrayList<Integer> row = new ArrayList<Integer>(t);
+                    row.addAll(s);
+                    expected.add(row);
+                }
+            }
+        }
+        assertTrue(expected.size() > TupleBatch.DEFAULT_CAPACITY);
+        BatchHashJoin join = new BatchHashJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new BatchScan(tid, hf.getId(), "t"),
+                new TupleToBatch(new SeqScan(tid, other.getId(), "s")));
+        SystemTestUtil.matchTuples(new BatchToTuple(join), expected);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchTest.class);
+    }
+}
@@ -0,0 +1,105 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Vector;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BlockNestedLoopJoinTest extends SimpleDbTestBase {
+
+  private HeapFile f1;
+  private HeapFile f2;
+  private ArrayList<ArrayList<Integer>> left;
+  private ArrayList<ArrayList<Integer>> right;
+
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    left = new ArrayList<ArrayList<Integer>>();
+    right = new ArrayList<ArrayList<Integer>>();
+    f1 = SystemTestUtil.createRandomHeapFile(2, 300, 100, null, left);
+    f2 = SystemTestUtil.createRandomHeapFile(2, 200, 100, null, right);
+  }
+
+  /**
+   * A range join returns every matching pair, with blocks smaller than,
+   * not dividing, and larger than the outer input.
+   */
+  @Test public void rangeJoin() throws Exception {
+    TransactionId tid = new TransactionId();
+    for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.LESS_THAN,
+        Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.NOT_EQUALS }) {
+      for (int block : new int[] { 1, 7, 1000, 0 }) {
+        JoinPredicate pred = new JoinPredicate(1, op, 0);
+        SystemTestUtil.matchTuples(new BlockNestedLoopJoin(pred,
+            new SeqScan(tid, f1.getId(), "l"), new SeqScan(tid, f2.getId(), "r"), block),
+            SystemTestUtil.joinTuples(left, right, pred));
+      }
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * The inner input is rewound once per block after the first, and
+   * rewinding the join returns the same tuples again.
+   */
+  @Test public void innerScannedOncePerBlock() throws Exception {
+    final int[] rewinds = new int[1];
+    TransactionId tid = new TransactionId();
+    DbIterator inner = new SeqScan(tid, f2.getId(), "r") {
+      private static final long serialVersionUID = 1L;
+      public void rewind() throws DbException, TransactionAbortedException {
+        rewinds[0]++;
+        super.rewind();
+      }
+    };
+    JoinPredicate pred = new JoinPredicate(1, Predicate.Op.LESS_THAN, 0);
+    BlockNestedLoopJoin join = new BlockNestedLoopJoin(pred,
+        new SeqScan(tid, f1.getId(), "l"), inner, 100);
+    ArrayList<ArrayList<Integer>> expected = SystemTestUtil.joinTuples(left, right, pred);
+    SystemTestUtil.matchTuples(join, expected);
+    assertEquals(2, rewinds[0]);
+
+    join.open();
+    while (join.hasNext())
+      join.next();
+    join.rewind();
+    int n = 0;
+    while (join.hasNext()) {
+      join.next();
+      n++;
+    }
+    join.close();
+    assertEquals(expected.size(), n);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Non-equality joins are costed with one inner scan per block of outer
+   * tuples that fits in the join memory budget.
+   */
+  @Test public void estimateCost() throws Exception {
+    JoinOptimizer jo = new JoinOptimizer(null, new Vector<LogicalJoinNode>());
+    LogicalJoinNode lj = new LogicalJoinNode("a", "b", "a.a0", "b.b1", Predicate.Op.LESS_THAN);
+    int block = GraceHashJoin.budgetTuples(new TupleDesc(new Type[] { Type.INT_TYPE }));
+    assertTrue(block > 1);
+    int card1 = 3 * block;
+    assertEquals(1000 + 3 * 2000 + (double)card1 * 20,
+        jo.estimateJoinCost(lj, card1, 20, 1000, 2000), 1e-9);
+    assertEquals(1000 + 2000 + 10 * 20, jo.estimateJoinCost(lj, 10, 20, 1000, 2000), 1e-9);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BlockNestedLoopJoinTest.class);
+  }
+}
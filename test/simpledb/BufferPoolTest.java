@@ -0,0 +1,225 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 10000, null, null);
+    }
+
+    /**
+     * Many threads read the same pages through a pool that is much smaller
+     * than the table. No read may fail and the pool must stay within its
+     * capacity.
+     */
+    @Test public void concurrentGetPage() throws Exception {
+        final int numPages = hf.numPages();
+        final BufferPool bp = Database.resetBufferPool(numPages / 2);
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] workers = new Thread[8];
+        for (int w = 0; w < workers.length; w++) {
+            final int offset = w;
+            workers[w] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 200; i++) {
+                            HeapPageId pid = new HeapPageId(hf.getId(), (i + offset) % numPages);
+                            Page p = bp.getPage(null, pid, Permissions.READ_ONLY);
+                            assertEquals(pid, p.getId());
+                        }
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                }
+            };
+            workers[w].start();
+        }
+        for (Thread t : workers)
+            t.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertTrue(bp.numResidentPages() <= numPages / 2);
+    }
+
+    /**
+     * When the only frame of the pool holds a page that another thread is
+     * still reading in, a request for a different page waits for the read
+     * instead of failing.
+     */
+    @Test public void waitsForFramesBeingRead() throws Exception {
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final HeapFile slow = new HeapFile(SystemTestUtil.createRandomHeapFileUnopened(
+                2, 2000, 100, null, null), Utility.getTupleDesc(2)) {
+            private static final long serialVersionUID = 1L;
+            public Page readPage(PageId pid) {
+                if (pid.pageNumber() == 0) {
+                    reading.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.readPage(pid);
+            }
+        };
+        Database.getCatalog().addTable(slow, SystemTestUtil.getUUID());
+        final BufferPool bp = Database.resetBufferPool(1);
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] readers = new Thread[2];
+        for (int i = 0; i < readers.length; i++) {
+            final HeapPageId pid = new HeapPageId(slow.getId(), i);
+            readers[i] = new Thread() {
+                public void run() {
+                    try {
+                        bp.getPage(null, pid, Permissions.READ_ONLY);
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                }
+            };
+        }
+        readers[0].start();
+        reading.await();
+        readers[1].start();
+        Thread.sleep(100);
+        release.countDown();
+        for (Thread t : readers)
+            t.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertTrue(bp.isResident(new HeapPageId(slow.getId(), 1)));
+    }
+
+    /**
+     * A page read in again while it is being dropped stays known to the
+     * replacement policy, so it can still be evicted.
+     */
+    @Test public void reloadDuringRemovalStaysEvictable() throws Exception {
+        final HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        final BufferPool[] pool = new BufferPool[1];
+        final ClockPolicy clock = new ClockPolicy(10);
+        ReplacementPolicy policy = new ReplacementPolicy() {
+            private boolean raced;
+            public void pageLoaded(PageId p) { clock.pageLoaded(p); }
+            public void pageLoadedCold(PageId p) { clock.pageLoadedCold(p); }
+            public void pageAccessed(PageId p) { clock.pageAccessed(p); }
+            public PageId chooseVictim(Evictable filter) { return clock.chooseVictim(filter); }
+            public void pageRemoved(PageId p) {
+                if (!raced) {
+                    raced = true;
+                    // another thread asks for the page while it is dropped
+                    Thread reader = new Thread() {
+                        public void run() {
+                            try {
+                                pool[0].getPage(null, pid, Permissions.READ_ONLY);
+                            } catch (Exception e) {
+                                throw new RuntimeException(e);
+                            }
+                        }
+                    };
+                    reader.start();
+                    try {
+                        reader.join();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                clock.pageRemoved(p);
+            }
+        };
+        BufferPool bp = new BufferPool(10, policy);
+        pool[0] = bp;
+        try {
+            bp.getPage(null, pid, Permissions.READ_ONLY);
+            bp.discardPage(pid);
+            PageId known = clock.chooseVictim(new ReplacementPolicy.Evictable() {
+                public boolean canEvict(PageId p) {
+                    return true;
+                }
+            });
+            assertEquals(bp.isResident(pid), pid.equals(known));
+        } finally {
+            bp.shutdown();
+        }
+    }
+
+    /**
+     * A resident page is returned as the same object on every request.
+     */
+    @Test public void residentPageIsShared() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        Page first = bp.getPage(null, pid, Permissions.READ_ONLY);
+        assertSame(first, bp.getPage(null, pid, Permissions.READ_ONLY));
+        assertEquals(1, bp.numResidentPages());
+    }
+
+    /**
+     * A sequential stream reads the pages after the requested one in the
+     * background, but never more than a quarter of the pool.
+     */
+    @Test public void readAheadLoadsNextPages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(40);
+        ReadAhead.Stream stream = new ReadAhead.Stream(hf);
+        stream.pageRequested(0);
+        stream.pageRequested(1);
+        HeapPageId next = new HeapPageId(hf.getId(), 2);
+        for (int i = 0; i < 100 && !bp.isResident(next); i++)
+            Thread.sleep(10);
+        assertTrue(bp.isResident(next));
+        assertTrue(bp.numResidentPages() <= 10);
+    }
+
+    /**
+     * The metrics count hits and misses per table, evictions and page reads,
+     * and are visible over JMX.
+     */
+    @Test public void metricsCountRequests() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 6; i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(hf.getId(), 5), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+
+        BufferPoolMetrics.Snapshot s = bp.getMetrics().snapshot();
+        assertEquals(1, s.getHits(hf.getId()));
+        assertEquals(6, s.getMisses(hf.getId()));
+        assertEquals(2, s.getEvictions());
+        assertEquals(4, s.getResidentPages());
+        assertEquals(1.0 / 7, s.getHitRatio(), 1e-9);
+        long reads = 0;
+        for (long n : s.getReadLatencyHistogram())
+            reads += n;
+        assertEquals(6, reads);
+
+        javax.management.ObjectName name =
+                new javax.management.ObjectName(BufferPoolMetrics.OBJECT_NAME);
+        assertEquals(6L, java.lang.management.ManagementFactory.getPlatformMBeanServer()
+                .getAttribute(name, "Misses"));
+    }
+
+        /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
@@ -0,0 +1,125 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ColumnScanTest extends SimpleDbTestBase {
+
+    private static ArrayList<ArrayList<Integer>> project(
+            ArrayList<ArrayList<Integer>> tuples, int[] columns) {
+        ArrayList<ArrayList<Integer>> out = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            for (int c : columns)
+                row.add(t.get(c));
+            out.add(row);
+        }
+        return out;
+    }
+
+    /**
+     * A PAX copy of a heap file holds the same tuples, and a ColumnScan over
+     * it returns just the requested columns, over either format.
+     */
+    @Test public void paxFileMatchesHeapFile() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile heap = SystemTestUtil.createRandomHeapFile(5, 3000, null, tuples);
+        File paxFile = File.createTempFile("pax", ".dat");
+        paxFile.deleteOnExit();
+        PaxHeapFile.convert(heap.getFile(), paxFile, heap.getTupleDesc(), BufferPool.PAGE_SIZE);
+        PaxHeapFile pax = new PaxHeapFile(paxFile, heap.getTupleDesc());
+        Database.getCatalog().addTable(pax, SystemTestUtil.getUUID());
+        assertEquals(heap.numPages(), pax.numPages());
+        SystemTestUtil.matchTuples(pax, tuples);
+
+        int[] columns = { 3, 0 };
+        TransactionId tid = new TransactionId();
+        ColumnScan scan = new ColumnScan(tid, pax.getId(), "p", columns);
+        assertEquals(2, scan.getTupleDesc().numFields());
+        SystemTestUtil.matchTuples(scan, project(tuples, columns));
+        SystemTestUtil.matchTuples(new ColumnScan(tid, heap.getId(), "h", columns),
+                project(tuples, columns));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Tuples inserted into and deleted from a PaxHeapFile through the
+     * BufferPool are stored column by column.
+     */
+    @Test public void paxInsertAndDelete() throws Exception {
+        File f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        PaxHeapFile pax = new PaxHeapFile(f, Utility.getTupleDesc(3));
+        Database.getCatalog().addTable(pax, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        Tuple first = null;
+        for (int i = 0; i < 500; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { i, 2 * i, 3 * i });
+            Database.getBufferPool().insertTuple(tid, pax.getId(), t);
+            if (i == 0)
+                first = t;
+            else
+                tuples.add(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().deleteTuple(tid, first);
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        int[] columns = { 2 };
+        ColumnScan scan = new ColumnScan(new TransactionId(), pax.getId(), "p", columns);
+        SystemTestUtil.matchTuples(scan, project(tuples, columns));
+        pax.close();
+    }
+
+    /**
+     * The planner scans a PaxHeapFile table with a ColumnScan over just the
+     * columns the query uses, and every other table with a SeqScan.
+     */
+    @Test public void plannerScansUsedColumns() throws Exception {
+        File f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        PaxHeapFile pax = new PaxHeapFile(f, Utility.getTupleDesc(4, "c"));
+        Database.getCatalog().addTable(pax, SystemTestUtil.getUUID());
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile heap = SystemTestUtil.createRandomHeapFile(4, 10, null, tuples, "c");
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(pax.getId(), "p");
+        lp.addScan(heap.getId(), "h");
+        lp.addProjectField("p.c3", null);
+        lp.addFilter("p.c0", Predicate.Op.GREATER_THAN, "1");
+        lp.addJoin("p.c1", "h.c1", Predicate.Op.EQUALS);
+        assertArrayEquals(new int[] { 0, 1, 3 },
+                lp.scanColumns(new LogicalScanNode(pax.getId(), "p")));
+        assertNull(lp.scanColumns(new LogicalScanNode(heap.getId(), "h")));
+
+        lp.addProjectField("p.*", null);
+        assertNull(lp.scanColumns(new LogicalScanNode(pax.getId(), "p")));
+        pax.close();
+    }
+
+    /** A table that is not stored in a HeapFile can't be column-scanned. */
+    @Test(expected = DbException.class)
+    public void nonHeapFileRejected() throws Exception {
+        TestUtil.SkeletonFile file = new TestUtil.SkeletonFile(-3, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+        new ColumnScan(new TransactionId(), file.getId(), "s", new int[] { 0 });
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnScanTest.class);
+    }
+}
@@ -0,0 +1,79 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + CompressedHeapFile.INDEX_SUFFIX).deleteOnExit();
+        return f;
+    }
+
+    /**
+     * A compressed copy of a heap file has the same tuples and takes a
+     * fraction of its space.
+     */
+    @Test public void compressedCopyMatches() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File heap = SystemTestUtil.createRandomHeapFileUnopened(3, 20000, 100, null, tuples);
+        File packed = tempFile();
+        CompressedHeapFile.compress(heap, packed, BufferPool.PAGE_SIZE);
+
+        CompressedHeapFile cf = new CompressedHeapFile(packed, Utility.getTupleDesc(3));
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        assertEquals((heap.length() + BufferPool.PAGE_SIZE - 1) / BufferPool.PAGE_SIZE,
+                cf.numPages());
+        assertTrue(packed.length() < heap.length() / 2);
+        SystemTestUtil.matchTuples(cf, tuples);
+        cf.close();
+    }
+
+    /**
+     * Tuples inserted through the BufferPool are written compressed and are
+     * read back by a fresh CompressedHeapFile on the same files.
+     */
+    @Test public void insertsSurviveReopen() throws Exception {
+        File f = tempFile();
+        TupleDesc td = Utility.getTupleDesc(2);
+        CompressedHeapFile cf = new CompressedHeapFile(f, td);
+        Database.getCatalog().addTable(cf, "packed");
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1500; i++) {
+            Database.getBufferPool().insertTuple(tid, cf.getId(), Utility.getHeapTuple(i, 2));
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(i);
+            row.add(i);
+            tuples.add(row);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(3, cf.numPages());
+        cf.close();
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        CompressedHeapFile reopened = new CompressedHeapFile(f, td);
+        Database.getCatalog().addTable(reopened, "packed");
+        assertEquals(3, reopened.numPages());
+        SystemTestUtil.matchTuples(reopened, tuples);
+        reopened.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
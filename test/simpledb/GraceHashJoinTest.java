@@ -0,0 +1,120 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class GraceHashJoinTest extends SimpleDbTestBase {
+
+  /**
+   * The join returns every matching pair whether the build side fits in
+   * the budget or is spilled, building on either side.
+   */
+  @Test public void spilledJoin() throws Exception {
+    ArrayList<ArrayList<Integer>> left = new ArrayList<ArrayList<Integer>>();
+    ArrayList<ArrayList<Integer>> right = new ArrayList<ArrayList<Integer>>();
+    HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 1000, 200, null, left);
+    HeapFile f2 = SystemTestUtil.createRandomHeapFile(2, 300, 200, null, right);
+    TransactionId tid = new TransactionId();
+    JoinPredicate pred = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+    ArrayList<ArrayList<Integer>> expected = SystemTestUtil.joinTuples(left, right, pred);
+    for (boolean buildLeft : new boolean[] { false, true }) {
+      for (int budget : new int[] { 5000, 40 }) {
+        GraceHashJoin join = new GraceHashJoin(pred, new SeqScan(tid, f1.getId(), "l"),
+            new SeqScan(tid, f2.getId(), "r"), buildLeft, budget);
+        SystemTestUtil.matchTuples(join, expected);
+        assertEquals(budget == 40, join.numSpilledPartitions() > 0);
+      }
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * A build side with a single key is repartitioned to the maximum depth
+   * and then joined a budget at a time, with or without reused tuples, and
+   * rewinding the join returns the same tuples.
+   */
+  @Test public void skewedKey() throws Exception {
+    Map<Integer,Integer> key = new HashMap<Integer,Integer>();
+    key.put(0, 1);
+    ArrayList<ArrayList<Integer>> left = new ArrayList<ArrayList<Integer>>();
+    ArrayList<ArrayList<Integer>> right = new ArrayList<ArrayList<Integer>>();
+    HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 60, 4, null, left);
+    HeapFile f2 = SystemTestUtil.createRandomHeapFile(2, 100, key, right);
+    JoinPredicate pred = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+    ArrayList<ArrayList<Integer>> expected = SystemTestUtil.joinTuples(left, right, pred);
+    TransactionId tid = new TransactionId();
+    for (boolean reuse : new boolean[] { false, true }) {
+      Tuple.setReuseEnabled(reuse);
+      try {
+        GraceHashJoin join = new GraceHashJoin(pred,
+            new SeqScan(tid, f1.getId(), "l"), new SeqScan(tid, f2.getId(), "r"), false, 7);
+        SystemTestUtil.matchTuples(join, expected);
+        // only the partition holding the key is written at each depth
+        assertEquals(GraceHashJoin.MAX_DEPTH + 1, join.numSpilledPartitions());
+
+        join.open();
+        while (join.hasNext())
+          join.next();
+        join.rewind();
+        int n = 0;
+        while (join.hasNext()) {
+          join.next();
+          n++;
+        }
+        join.close();
+        assertEquals(expected.size(), n);
+      } finally {
+        Tuple.setReuseEnabled(false);
+      }
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * The optimizer uses a Grace hash join when the build side is not known
+   * to fit in the join memory budget, however full the buffer pool is.
+   */
+  @Test public void optimizerChoosesGraceHashJoin() throws Exception {
+    DbIterator a = new TupleIterator(Utility.getTupleDesc(2, "a"), new ArrayList<Tuple>());
+    DbIterator b = new TupleIterator(Utility.getTupleDesc(2, "b"), new ArrayList<Tuple>());
+    LogicalJoinNode lj = new LogicalJoinNode("a", "b", "a.a0", "b.b1", Predicate.Op.EQUALS);
+    lj.f1QuantifiedName = "a0";
+    lj.f2QuantifiedName = "b1";
+
+    assertTrue(JoinOptimizer.instantiateJoin(lj, a, b, 10, 1000) instanceof HashJoin);
+    assertTrue(JoinOptimizer.instantiateJoin(lj, a, b) instanceof GraceHashJoin);
+    DbIterator j = JoinOptimizer.instantiateJoin(lj, a, b, 100000000, 200000000);
+    assertTrue(j instanceof GraceHashJoin);
+    assertTrue(((GraceHashJoin)j).buildsLeft());
+
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1, null, null);
+    BufferPool bp = Database.resetBufferPool(1);
+    bp.getPage(null, new HeapPageId(f.getId(), 0), Permissions.READ_ONLY);
+    long old = GraceHashJoin.getMemoryBudget();
+    try {
+      GraceHashJoin.setMemoryBudget(1000 * 120);
+      int fits = GraceHashJoin.budgetTuples(a.getTupleDesc());
+      assertTrue(JoinOptimizer.instantiateJoin(lj, a, b, fits, fits + 1) instanceof HashJoin);
+      assertTrue(JoinOptimizer.instantiateJoin(lj, a, b, fits + 1, fits + 2) instanceof GraceHashJoin);
+    } finally {
+      GraceHashJoin.setMemoryBudget(old);
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(GraceHashJoinTest.class);
+  }
+}
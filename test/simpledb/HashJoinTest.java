@@ -0,0 +1,131 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Vector;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    4, 5, 6,
+                    5, 6, 7 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7 });
+  }
+
+  /**
+   * Unit test for HashJoin.getNext() building on either side; the output
+   * columns are in child order either way.
+   */
+  @Test public void eqJoin() throws Exception {
+    for (boolean buildLeft : new boolean[] { false, true }) {
+      JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+      HashJoin op = new HashJoin(pred, scan1, scan2, buildLeft);
+      assertEquals(Utility.getTupleDesc(width1 + width2), op.getTupleDesc());
+      op.open();
+      eqJoin.open();
+      TestUtil.matchAllTuples(eqJoin, op);
+      op.close();
+      eqJoin.close();
+    }
+  }
+
+  /**
+   * Unit test for HashJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    op.open();
+    while (op.hasNext())
+      op.next();
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Duplicate join keys on both sides produce every matching pair.
+   */
+  @Test public void duplicateKeys() throws Exception {
+    ArrayList<ArrayList<Integer>> left = new ArrayList<ArrayList<Integer>>();
+    ArrayList<ArrayList<Integer>> right = new ArrayList<ArrayList<Integer>>();
+    HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 1000, 50, null, left);
+    HeapFile f2 = SystemTestUtil.createRandomHeapFile(2, 200, 50, null, right);
+    TransactionId tid = new TransactionId();
+    JoinPredicate pred = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+    ArrayList<ArrayList<Integer>> expected = SystemTestUtil.joinTuples(left, right, pred);
+    SystemTestUtil.matchTuples(new HashJoin(pred, new SeqScan(tid, f1.getId(), "l"),
+        new SeqScan(tid, f2.getId(), "r"), true), expected);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Equality joins are instantiated as hash joins built on the smaller
+   * input, and are costed as one pass over each input; other joins are
+   * block nested-loop joins.
+   */
+  @Test public void optimizerChoosesHashJoin() throws Exception {
+    DbIterator a = new TupleIterator(Utility.getTupleDesc(2, "a"), new ArrayList<Tuple>());
+    DbIterator b = new TupleIterator(Utility.getTupleDesc(2, "b"), new ArrayList<Tuple>());
+    LogicalJoinNode lj = new LogicalJoinNode("a", "b", "a.a0", "b.b1", Predicate.Op.EQUALS);
+    lj.f1QuantifiedName = "a0";
+    lj.f2QuantifiedName = "b1";
+
+    DbIterator j = JoinOptimizer.instantiateJoin(lj, a, b, 10, 1000);
+    assertTrue(j instanceof HashJoin);
+    assertTrue(((HashJoin)j).buildsLeft());
+    j = JoinOptimizer.instantiateJoin(lj, a, b, 1000, 10);
+    assertFalse(((HashJoin)j).buildsLeft());
+
+    lj.p = Predicate.Op.LESS_THAN;
+    assertTrue(JoinOptimizer.instantiateJoin(lj, a, b, 10, 1000) instanceof BlockNestedLoopJoin);
+
+    JoinOptimizer jo = new JoinOptimizer(null, new Vector<LogicalJoinNode>());
+    LogicalJoinNode eq = new LogicalJoinNode("a", "b", "a.a0", "b.b1", Predicate.Op.EQUALS);
+    assertEquals(1000 + 2000 + 10 + 20, jo.estimateJoinCost(eq, 10, 20, 1000, 2000), 1e-9);
+    assertEquals(20, JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS,
+        "a", "b", "a0", "b1", 10, 20, true, false,
+        new HashMap<String,TableStats>(), new HashMap<String,Integer>()));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashJoinTest.class);
+  }
+}
@@ -3,6 +3,7 @@ package simpledb;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.File;
 import java.util.*;
 import org.junit.After;
 import org.junit.Before;
@@ -77,6 +78,137 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.close(): a closed file reopens on demand.
+     */
+    @Test
+    public void readPageAfterClose() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        byte[] before = hf.readPage(pid).getPageData();
+        hf.close();
+        hf.close();
+        assertTrue(Arrays.equals(before, hf.readPage(pid).getPageData()));
+    }
+
+    /**
+     * Unit test for MappedHeapFile.readPage(), including a page appended
+     * after the file was first mapped.
+     */
+    @Test
+    public void mappedReadPage() throws Exception {
+        MappedHeapFile mf = new MappedHeapFile(hf.getFile(), td);
+        assertEquals(hf.getId(), mf.getId());
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        assertTrue(Arrays.equals(hf.readPage(pid).getPageData(),
+                mf.readPage(pid).getPageData()));
+
+        HeapPage copy = new HeapPage(new HeapPageId(hf.getId(), 1),
+                hf.readPage(pid).getPageData());
+        mf.writePage(copy);
+        assertEquals(2, mf.numPages());
+        HeapPage grown = (HeapPage) mf.readPage(copy.getId());
+        assertEquals(484, grown.getNumEmptySlots());
+        mf.close();
+    }
+
+    /**
+     * A page read from a MappedHeapFile is built on the mapping, and it and
+     * its before image keep their contents when the page is written through
+     * the file.
+     */
+    @Test
+    public void mappedPageSurvivesWrite() throws Exception {
+        MappedHeapFile mf = new MappedHeapFile(hf.getFile(), td);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage read = (HeapPage) mf.readPage(pid);
+        assertTrue(read.data.isDirect());
+        byte[] before = read.getPageData();
+
+        HeapPage changed = new HeapPage(pid, before);
+        changed.deleteTuple(changed.iterator().next());
+        mf.writePage(changed);
+        assertTrue(Arrays.equals(before, read.getPageData()));
+        assertTrue(Arrays.equals(before, read.getBeforeImage().getPageData()));
+        assertEquals(changed.getNumEmptySlots(),
+                ((HeapPage) mf.readPage(pid)).getNumEmptySlots());
+        mf.close();
+    }
+
+    /**
+     * Unit test for a HeapFile with pages larger than the default: its
+     * pages hold proportionally more tuples, and the BufferPool charges them
+     * several frames each.
+     */
+    @Test
+    public void largePages() throws Exception {
+        int pageSize = 8 * BufferPool.PAGE_SIZE;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 10000; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, -i)));
+        java.io.File temp = java.io.File.createTempFile("table", ".dat");
+        temp.deleteOnExit();
+        HeapFileEncoder.convert(tuples, temp, pageSize, 2);
+        HeapFile big = new HeapFile(temp, td, pageSize);
+        Database.getCatalog().addTable(big, "big");
+        assertEquals(pageSize, big.bytesPerPage());
+        assertEquals(3, big.numPages());
+
+        BufferPool bp = Database.resetBufferPool(20);
+        HeapPage first = (HeapPage) bp.getPage(tid,
+                new HeapPageId(big.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(0, first.getNumEmptySlots());
+        assertEquals(pageSize, first.getPageData().length);
+        assertEquals(8, bp.numUsedFrames());
+        SystemTestUtil.matchTuples(big, tuples);
+        assertTrue(bp.numUsedFrames() <= 20);
+        big.close();
+    }
+
+    /**
+     * Unit test for a HeapFile with pages smaller than the default: the
+     * BufferPool charges them only the bytes they use, so a pool of one
+     * default-sized frame holds several of them.
+     */
+    @Test
+    public void smallPages() throws Exception {
+        int pageSize = BufferPool.PAGE_SIZE / 8;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 500; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, -i)));
+        java.io.File temp = java.io.File.createTempFile("table", ".dat");
+        temp.deleteOnExit();
+        HeapFileEncoder.convert(tuples, temp, pageSize, 2);
+        HeapFile small = new HeapFile(temp, td, pageSize);
+        Database.getCatalog().addTable(small, "small");
+        assertEquals(8, small.numPages());
+
+        BufferPool bp = Database.resetBufferPool(1);
+        for (int i = 0; i < small.numPages(); i++)
+            bp.getPage(tid, new HeapPageId(small.getId(), i), Permissions.READ_ONLY);
+        assertEquals(8, bp.numResidentPages());
+        assertEquals(1, bp.numUsedFrames());
+        small.close();
+    }
+
+    /**
+     * Reading a page of a missing file fails without creating the file, and
+     * a write to a file that was opened for reading reopens it read-write.
+     */
+    @Test
+    public void readMissingFile() throws Exception {
+        File missing = new File(hf.getFile().getPath() + ".missing");
+        HeapFile mf = new HeapFile(missing, td);
+        assertNull(mf.readPage(new HeapPageId(mf.getId(), 0)));
+        assertFalse(missing.exists());
+
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage)hf.readPage(pid);
+        page.deleteTuple(page.iterator().next());
+        hf.writePage(page);
+        assertEquals(page.getNumEmptySlots(),
+                ((HeapPage)hf.readPage(pid)).getNumEmptySlots());
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
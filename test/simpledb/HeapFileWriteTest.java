@@ -43,6 +43,77 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for the free-space map: a slot freed on a full page is
+     * reused before a new page is added, and a rebuilt map agrees with the
+     * pages on disk.
+     */
+    @Test public void reuseFreedSlot() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        Tuple first = null;
+        for (int i = 0; i < 505; ++i) {
+            Tuple t = Utility.getHeapTuple(i, 2);
+            bp.insertTuple(tid, empty.getId(), t);
+            if (i == 0)
+                first = t;
+        }
+        assertEquals(2, empty.numPages());
+        assertEquals(0, first.getRecordId().getPageId().pageNumber());
+
+        bp.deleteTuple(tid, first);
+        Tuple again = Utility.getHeapTuple(7, 2);
+        bp.insertTuple(tid, empty.getId(), again);
+        assertEquals(0, again.getRecordId().getPageId().pageNumber());
+        assertEquals(2, empty.numPages());
+
+        bp.transactionComplete(tid);
+        new java.io.File(empty.getFile().getPath() + ".fsm").delete();
+        empty.close();
+        FreeSpaceMap rebuilt = empty.freeSpace();
+        assertEquals(0, rebuilt.freeSlots(0));
+        assertEquals(FreeSpaceMap.MAX_LEVEL, rebuilt.freeSlots(1));
+    }
+
+    /**
+     * An aborted insert leaves the free-space map as it was, so the page
+     * it filled is used again instead of a new page being added.
+     */
+    @Test public void abortRestoresFreeSpace() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        for (int i = 0; i < 504; ++i)
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        assertEquals(0, empty.freeSpace().freeSlots(0));
+        bp.transactionComplete(tid, false);
+        assertEquals(FreeSpaceMap.MAX_LEVEL, empty.freeSpace().freeSlots(0));
+
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(1, 2);
+        bp.insertTuple(tid, empty.getId(), t);
+        assertEquals(0, t.getRecordId().getPageId().pageNumber());
+        assertEquals(1, empty.numPages());
+    }
+
+    /**
+     * A page appended by a transaction that never commits keeps its free
+     * space in the side file once a later page is written, so reopening
+     * the map after a crash does not take it for a full page.
+     */
+    @Test public void appendedPageRecordedBeforeLaterPages() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        // fills the existing page and appends a second one, also filled
+        for (int i = 0; i < 2 * 504; ++i)
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        TransactionId other = new TransactionId();
+        bp.insertTuple(other, empty.getId(), Utility.getHeapTuple(1, 2));
+        bp.transactionComplete(other);
+        assertEquals(3, empty.numPages());
+
+        // crash: the second page is on disk only as it was appended
+        empty.close();
+        assertEquals(FreeSpaceMap.MAX_LEVEL, empty.freeSpace().freeSlots(1));
+        bp.transactionComplete(tid, false);
+    }
+
     /**
      * JUnit suite target
      */
@@ -4,6 +4,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -126,6 +127,47 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getBeforeImage(): the before image is the page
+     * as it was read until setBeforeImage() is called, and the page's input
+     * bytes are never changed.
+     */
+    @Test public void beforeImage() throws Exception {
+        byte[] data = HeapPageReadTest.EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, data);
+        int free = page.getNumEmptySlots();
+        page.insertTuple(Utility.getHeapTuple(1, 2));
+
+        assertTrue(Arrays.equals(HeapPageReadTest.EXAMPLE_DATA, data));
+        assertEquals(free, page.getBeforeImage().getNumEmptySlots());
+
+        page.setBeforeImage();
+        assertEquals(free - 1, page.getBeforeImage().getNumEmptySlots());
+        page.insertTuple(Utility.getHeapTuple(2, 2));
+        assertEquals(free - 1, page.getBeforeImage().getNumEmptySlots());
+        assertEquals(free - 2, page.getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for HeapPage: tuples handed out by the iterator keep their
+     * values after their slot is deleted and reused, and getPageData()
+     * round-trips through the constructor.
+     */
+    @Test public void tuplesSurviveChanges() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple first = page.iterator().next();
+        Field before = first.getField(1);
+
+        // the new tuple goes into the slot first was deleted from
+        page.deleteTuple(first);
+        page.insertTuple(Utility.getHeapTuple(new int[] { -1, -1 }));
+        assertEquals(before, first.getField(1));
+
+        HeapPage reread = new HeapPage(pid, page.getPageData());
+        assertTrue(Arrays.equals(page.getPageData(), reread.getPageData()));
+        assertEquals(page.getNumEmptySlots(), reread.getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
@@ -1,6 +1,7 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 import java.util.NoSuchElementException;
 
@@ -178,6 +179,47 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * AVG does not overflow on large values, and MIN and MAX are exact for
+   * values of any size.
+   */
+  @Test public void largeValues() throws Exception {
+    DbIterator big = TestUtil.createTupleList(width1,
+        new int[] { 1, Integer.MAX_VALUE,
+                    1, Integer.MAX_VALUE - 2,
+                    2, -5000000,
+                    2, -3000000 });
+    int[][] expected = {
+      { 1, Integer.MAX_VALUE - 1, 2, -4000000 },
+      { 1, Integer.MAX_VALUE - 2, 2, -5000000 },
+      { 1, Integer.MAX_VALUE, 2, -3000000 }
+    };
+    Aggregator.Op[] ops = { Aggregator.Op.AVG, Aggregator.Op.MIN, Aggregator.Op.MAX };
+    for (int i = 0; i < ops.length; i++) {
+      IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, ops[i]);
+      big.open();
+      while (big.hasNext())
+        agg.mergeTupleIntoGroup(big.next());
+      big.close();
+      DbIterator it = agg.iterator();
+      it.open();
+      TestUtil.matchAllTuples(TestUtil.createTupleList(width1, expected[i]), it);
+    }
+  }
+
+  /**
+   * Without grouping, an empty input has a COUNT of 0 and no MIN.
+   */
+  @Test public void emptyInput() throws Exception {
+    DbIterator it = new IntegerAggregator(Aggregator.NO_GROUPING, null, 1,
+        Aggregator.Op.COUNT).iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(1, new int[] { 0 }), it);
+    it = new IntegerAggregator(Aggregator.NO_GROUPING, null, 1, Aggregator.Op.MIN).iterator();
+    it.open();
+    assertFalse(it.hasNext());
+  }
+
   /**
    * JUnit suite target
    */
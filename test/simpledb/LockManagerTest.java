@@ -0,0 +1,138 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LockManagerTest {
+
+    private LockManager lm;
+    private TransactionId t1, t2;
+    private PageId p0, p1;
+
+    @Before public void setUp() {
+        lm = new LockManager();
+        t1 = new TransactionId();
+        t2 = new TransactionId();
+        p0 = new HeapPageId(1, 0);
+        p1 = new HeapPageId(1, 1);
+    }
+
+    /**
+     * Runs an acquire on a separate thread; finished is set once it returns
+     * and aborted is set if it threw TransactionAbortedException.
+     */
+    private static class Acquirer extends Thread {
+        final LockManager lm;
+        final TransactionId tid;
+        final PageId pid;
+        final Permissions perm;
+        volatile boolean finished = false;
+        volatile boolean aborted = false;
+
+        Acquirer(LockManager lm, TransactionId tid, PageId pid, Permissions perm) {
+            this.lm = lm;
+            this.tid = tid;
+            this.pid = pid;
+            this.perm = perm;
+            setDaemon(true);
+            start();
+        }
+
+        public void run() {
+            try {
+                lm.acquire(tid, pid, perm);
+            } catch (TransactionAbortedException e) {
+                aborted = true;
+            }
+            finished = true;
+        }
+    }
+
+    @Test public void sharedLocksAreCompatible() throws Exception {
+        lm.acquire(t1, p0, Permissions.READ_ONLY);
+        lm.acquire(t2, p0, Permissions.READ_ONLY);
+        assertTrue(lm.holdsLock(t1, p0));
+        assertTrue(lm.holdsLock(t2, p0));
+        assertFalse(lm.isWriteLocked(p0));
+    }
+
+    @Test public void exclusiveBlocksUntilRelease() throws Exception {
+        lm.acquire(t1, p0, Permissions.READ_WRITE);
+        assertTrue(lm.isWriteLocked(p0));
+        Acquirer a = new Acquirer(lm, t2, p0, Permissions.READ_ONLY);
+        a.join(300);
+        assertFalse(a.finished);
+
+        lm.releaseAll(t1);
+        a.join(2000);
+        assertTrue(a.finished);
+        assertFalse(a.aborted);
+        assertTrue(lm.holdsLock(t2, p0));
+        assertFalse(lm.holdsLock(t1, p0));
+    }
+
+    @Test public void soleReaderUpgrades() throws Exception {
+        lm.acquire(t1, p0, Permissions.READ_ONLY);
+        lm.acquire(t1, p0, Permissions.READ_WRITE);
+        assertTrue(lm.isWriteLocked(p0));
+
+        lm.release(t1, p0);
+        assertFalse(lm.holdsLock(t1, p0));
+        assertFalse(lm.isWriteLocked(p0));
+    }
+
+    @Test public void queuedWriterIsNotStarved() throws Exception {
+        lm.acquire(t1, p0, Permissions.READ_ONLY);
+        Acquirer writer = new Acquirer(lm, t2, p0, Permissions.READ_WRITE);
+        writer.join(300);
+        assertFalse(writer.finished);
+
+        // a new reader has to queue behind the waiting writer
+        TransactionId t3 = new TransactionId();
+        Acquirer reader = new Acquirer(lm, t3, p0, Permissions.READ_ONLY);
+        reader.join(300);
+        assertFalse(reader.finished);
+
+        lm.releaseAll(t1);
+        writer.join(2000);
+        assertTrue(writer.finished);
+        assertFalse(reader.finished);
+
+        lm.releaseAll(t2);
+        reader.join(2000);
+        assertTrue(reader.finished);
+    }
+
+    @Test public void deadlockAbortsOneTransaction() throws Exception {
+        lm.acquire(t1, p0, Permissions.READ_WRITE);
+        lm.acquire(t2, p1, Permissions.READ_WRITE);
+        Acquirer a = new Acquirer(lm, t1, p1, Permissions.READ_WRITE);
+        a.join(300);
+        assertFalse(a.finished);
+
+        Acquirer b = new Acquirer(lm, t2, p0, Permissions.READ_WRITE);
+        b.join(2000);
+        a.join(2000);
+        assertTrue(a.aborted || b.aborted);
+
+        // the survivor gets its lock once the victim gives up its locks
+        if (b.aborted)
+            lm.releaseAll(t2);
+        else
+            lm.releaseAll(t1);
+        a.join(2000);
+        b.join(2000);
+        assertTrue(a.finished && b.finished);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
@@ -0,0 +1,114 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ParallelHashJoinTest extends SimpleDbTestBase {
+
+  /**
+   * The join returns every matching pair with one partition and with many,
+   * more than are joined at once, building on either side, with inputs of
+   * several chunks, and again after a rewind.
+   */
+  @Test public void eqJoin() throws Exception {
+    ArrayList<ArrayList<Integer>> left = new ArrayList<ArrayList<Integer>>();
+    ArrayList<ArrayList<Integer>> right = new ArrayList<ArrayList<Integer>>();
+    HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 3 * ParallelHashJoin.CHUNK_TUPLES,
+        20000, null, left);
+    HeapFile f2 = SystemTestUtil.createRandomHeapFile(2, ParallelHashJoin.CHUNK_TUPLES + 100,
+        20000, null, right);
+    JoinPredicate pred = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+    ArrayList<ArrayList<Integer>> expected = SystemTestUtil.joinTuples(left, right, pred);
+    assertTrue(expected.size() > 0);
+
+    TransactionId tid = new TransactionId();
+    for (int partitions : new int[] { 1, 5, 4 * ParallelHashJoin.NUM_THREADS + 1 }) {
+      ParallelHashJoin join = new ParallelHashJoin(pred, new SeqScan(tid, f1.getId(), "l"),
+          new SeqScan(tid, f2.getId(), "r"), partitions == 5, partitions);
+      assertEquals(Integer.highestOneBit(2 * partitions - 1), join.numPartitions());
+      SystemTestUtil.matchTuples(join, expected);
+
+      join.open();
+      while (join.hasNext())
+        join.next();
+      join.rewind();
+      int n = 0;
+      while (join.hasNext()) {
+        join.next();
+        n++;
+      }
+      join.close();
+      assertEquals(expected.size(), n);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Rows from scans that reuse their tuples are copied before they are
+   * handed to the workers.
+   */
+  @Test public void reusedTuples() throws Exception {
+    ArrayList<ArrayList<Integer>> left = new ArrayList<ArrayList<Integer>>();
+    ArrayList<ArrayList<Integer>> right = new ArrayList<ArrayList<Integer>>();
+    HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 500, 100, null, left);
+    HeapFile f2 = SystemTestUtil.createRandomHeapFile(2, 100, 100, null, right);
+    JoinPredicate pred = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+    ArrayList<ArrayList<Integer>> expected = SystemTestUtil.joinTuples(left, right, pred);
+    TransactionId tid = new TransactionId();
+    Tuple.setReuseEnabled(true);
+    try {
+      SystemTestUtil.matchTuples(new ParallelHashJoin(pred,
+          new SeqScan(tid, f1.getId(), "l"), new SeqScan(tid, f2.getId(), "r")), expected);
+    } finally {
+      Tuple.setReuseEnabled(false);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * The optimizer runs a large join in parallel, building on the smaller
+   * side, when both inputs fit in the join memory budget.
+   */
+  @Test public void optimizerChoosesParallelHashJoin() throws Exception {
+    if (ParallelHashJoin.NUM_THREADS < 2)
+      return;
+    DbIterator a = new TupleIterator(Utility.getTupleDesc(2, "a"), new ArrayList<Tuple>());
+    DbIterator b = new TupleIterator(Utility.getTupleDesc(2, "b"), new ArrayList<Tuple>());
+    LogicalJoinNode lj = new LogicalJoinNode("a", "b", "a.a0", "b.b1", Predicate.Op.EQUALS);
+    lj.f1QuantifiedName = "a0";
+    lj.f2QuantifiedName = "b1";
+
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1, null, null);
+    BufferPool bp = Database.resetBufferPool(1);
+    bp.getPage(null, new HeapPageId(f.getId(), 0), Permissions.READ_ONLY);
+    long old = GraceHashJoin.getMemoryBudget();
+    try {
+      GraceHashJoin.setMemoryBudget(100000 * 120);
+      int fits = GraceHashJoin.budgetTuples(a.getTupleDesc());
+      assertTrue(JoinOptimizer.instantiateJoin(lj, a, b, 10, 20) instanceof HashJoin);
+      DbIterator j = JoinOptimizer.instantiateJoin(lj, a, b, fits / 4, fits / 2);
+      assertTrue(j instanceof ParallelHashJoin);
+      assertTrue(((ParallelHashJoin)j).buildsLeft());
+      j = JoinOptimizer.instantiateJoin(lj, a, b, fits / 2, fits / 4);
+      assertFalse(((ParallelHashJoin)j).buildsLeft());
+      assertTrue(JoinOptimizer.instantiateJoin(lj, a, b, fits / 2, fits) instanceof HashJoin);
+    } finally {
+      GraceHashJoin.setMemoryBudget(old);
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ParallelHashJoinTest.class);
+  }
+}
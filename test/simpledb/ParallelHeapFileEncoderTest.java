@@ -0,0 +1,72 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class ParallelHeapFileEncoderTest {
+
+    private static File tempFile(String suffix) throws IOException {
+        File f = File.createTempFile("parallel", suffix);
+        f.deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Writes rows of an int and a string column, with an empty line and a
+     * Windows line ending thrown in.
+     */
+    private static File writeInput(int rows) throws IOException {
+        File in = tempFile(".txt");
+        Random r = new Random(42);
+        BufferedWriter bw = new BufferedWriter(new FileWriter(in));
+        for (int i = 0; i < rows; i++) {
+            bw.write(r.nextInt() + "," + Integer.toHexString(r.nextInt()));
+            bw.write(i % 97 == 0 ? "\r\n" : "\n");
+            if (i % 501 == 0)
+                bw.write("\n");
+        }
+        bw.close();
+        return in;
+    }
+
+    private static void assertSameOutput(File in, int chunkBytes) throws IOException {
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+        File expected = tempFile(".dat");
+        File actual = tempFile(".dat");
+        HeapFileEncoder.convert(in, expected, BufferPool.PAGE_SIZE, 2, types, ',');
+        ParallelHeapFileEncoder.convert(in, actual, BufferPool.PAGE_SIZE, 2, types, ',',
+                4, chunkBytes);
+        assertTrue(Arrays.equals(TestUtil.readFileBytes(expected.getAbsolutePath()),
+                TestUtil.readFileBytes(actual.getAbsolutePath())));
+    }
+
+    /**
+     * The output is identical to HeapFileEncoder's, with many small chunks
+     * that do not line up with pages.
+     */
+    @Test public void matchesHeapFileEncoder() throws Exception {
+        assertSameOutput(writeInput(3000), 1000);
+        assertSameOutput(writeInput(3000), 1 << 20);
+    }
+
+    /**
+     * An empty input gives a single empty page.
+     */
+    @Test public void emptyInput() throws Exception {
+        assertSameOutput(tempFile(".txt"), 1000);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelHeapFileEncoderTest.class);
+    }
+}
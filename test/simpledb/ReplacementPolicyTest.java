@@ -0,0 +1,170 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class ReplacementPolicyTest {
+
+    private static final ReplacementPolicy.Evictable ANY =
+        new ReplacementPolicy.Evictable() {
+            public boolean canEvict(PageId pid) {
+                return true;
+            }
+        };
+
+    private static PageId page(int n) {
+        return new HeapPageId(1, n);
+    }
+
+    /**
+     * Unit test for ClockPolicy: a page that was referenced since the hand
+     * last passed it gets a second chance.
+     */
+    @Test public void clockSecondChance() {
+        ClockPolicy clock = new ClockPolicy(3);
+        clock.pageLoaded(page(0));
+        clock.pageLoaded(page(1));
+        clock.pageLoaded(page(2));
+
+        // first sweep clears every bit, so the first slot is the victim
+        PageId victim = clock.chooseVictim(ANY);
+        assertNotNull(victim);
+        clock.pageRemoved(victim);
+
+        // reference one of the survivors; the other one must go next
+        HashSet<PageId> left = new HashSet<PageId>();
+        for (int i = 0; i < 3; i++)
+            if (!page(i).equals(victim))
+                left.add(page(i));
+        PageId hot = left.iterator().next();
+        clock.pageAccessed(hot);
+        left.remove(hot);
+        assertEquals(left.iterator().next(), clock.chooseVictim(ANY));
+    }
+
+    /**
+     * Unit test for ClockPolicy: vetoed pages are skipped and an empty clock
+     * has no victim.
+     */
+    @Test public void clockHonoursFilter() {
+        ClockPolicy clock = new ClockPolicy(2);
+        assertNull(clock.chooseVictim(ANY));
+
+        clock.pageLoaded(page(0));
+        clock.pageLoaded(page(1));
+        PageId victim = clock.chooseVictim(new ReplacementPolicy.Evictable() {
+            public boolean canEvict(PageId pid) {
+                return pid.pageNumber() == 1;
+            }
+        });
+        assertEquals(page(1), victim);
+
+        assertNull(clock.chooseVictim(new ReplacementPolicy.Evictable() {
+            public boolean canEvict(PageId pid) {
+                return false;
+            }
+        }));
+    }
+
+    /**
+     * Unit test for LruKPolicy: pages referenced only once are evicted
+     * before pages that were referenced K times, even if they are newer.
+     */
+    @Test public void lruKPrefersColdPages() {
+        LruKPolicy lru = new LruKPolicy(2);
+        lru.pageLoaded(page(0));
+        lru.pageAccessed(page(0));
+        lru.pageLoaded(page(1));
+        lru.pageLoaded(page(2));
+
+        assertEquals(page(1), lru.chooseVictim(ANY));
+        lru.pageRemoved(page(1));
+        assertEquals(page(2), lru.chooseVictim(ANY));
+        lru.pageRemoved(page(2));
+        assertEquals(page(0), lru.chooseVictim(ANY));
+    }
+
+    /**
+     * Unit test for LruKPolicy: hot pages are kept in least recently used
+     * order.
+     */
+    @Test public void lruKOrdersHotPages() {
+        LruKPolicy lru = new LruKPolicy(2);
+        for (int i = 0; i < 3; i++) {
+            lru.pageLoaded(page(i));
+            lru.pageAccessed(page(i));
+        }
+        lru.pageAccessed(page(0));
+        assertEquals(page(1), lru.chooseVictim(ANY));
+    }
+
+    /**
+     * Unit test for pageLoadedCold: in both policies a page loaded cold is
+     * evicted before older pages, unless it is accessed again.
+     */
+    @Test public void coldPagesGoFirst() {
+        ReplacementPolicy[] policies = { new ClockPolicy(3), new LruKPolicy() };
+        for (ReplacementPolicy p : policies) {
+            p.pageLoaded(page(0));
+            p.pageLoaded(page(1));
+            p.pageLoadedCold(page(2));
+            assertEquals(page(2), p.chooseVictim(ANY));
+
+            p.pageAccessed(page(2));
+            assertFalse(page(2).equals(p.chooseVictim(ANY)));
+        }
+    }
+
+    /**
+     * Unit test for BufferPool: a scan over a table much larger than the
+     * pool does not evict a page that other queries use.
+     */
+    @Test public void largeScanKeepsWorkingSet() throws Exception {
+        Database.reset();
+        HeapFile small = simpledb.systemtest.SystemTestUtil.createRandomHeapFile(
+                2, 10, null, null);
+        HeapFile big = simpledb.systemtest.SystemTestUtil.createRandomHeapFile(
+                2, 10000, null, null);
+        BufferPool bp = Database.resetBufferPool(8);
+        assertTrue(bp.isLargeScan(big.numPages()));
+
+        TransactionId tid = new TransactionId();
+        HeapPageId hot = new HeapPageId(small.getId(), 0);
+        bp.getPage(tid, hot, Permissions.READ_ONLY);
+        DbFileIterator it = big.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            it.next();
+        it.close();
+        assertTrue(bp.isResident(hot));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for BufferPool with a pluggable policy: the pool never holds
+     * more pages than it was sized for.
+     */
+    @Test public void bufferPoolUsesPolicy() throws Exception {
+        Database.reset();
+        HeapFile hf = simpledb.systemtest.SystemTestUtil.createRandomHeapFile(
+                2, 5000, null, null);
+        assertTrue(hf.numPages() > 4);
+        BufferPool bp = new BufferPool(4, new LruKPolicy());
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < hf.numPages(); i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        assertEquals(4, bp.numResidentPages());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,148 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+
+    private TupleDesc td;
+    private HeapPageId pid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE },
+                new String[] { "id", "name" });
+        pid = new HeapPageId(-1, 0);
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    /** @return the tuples of a page by slot */
+    private HashMap<Integer, Tuple> bySlot(SlottedPage page) {
+        HashMap<Integer, Tuple> slots = new HashMap<Integer, Tuple>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(pid, t.getRecordId().getPageId());
+            slots.put(t.getRecordId().tupleno(), t);
+        }
+        return slots;
+    }
+
+    /**
+     * Short strings take only their own bytes, so a page holds many more
+     * tuples than a HeapPage, and they survive a round trip through the
+     * page's bytes.
+     */
+    @Test public void shortStringsPackTightly() throws Exception {
+        SlottedPage page = new SlottedPage(pid,
+                SlottedPage.createEmptyPageData(BufferPool.PAGE_SIZE));
+        int n = 0;
+        try {
+            while (true) {
+                page.insertTuple(tuple(n, "name" + (n % 10)));
+                n++;
+            }
+        } catch (DbException e) {
+            // full
+        }
+        assertEquals(0, page.getNumEmptySlots());
+        // a HeapPage holds 30 tuples of this schema
+        assertTrue(n > 250);
+
+        SlottedPage reread = new SlottedPage(pid, page.getPageData());
+        HashMap<Integer, Tuple> slots = bySlot(reread);
+        assertEquals(n, slots.size());
+        for (int i = 0; i < n; i++)
+            assertTrue(TestUtil.compareTuples(tuple(i, "name" + (i % 10)), slots.get(i)));
+    }
+
+    /**
+     * Deleting tuples and filling the space again with longer tuples moves
+     * records, but every tuple keeps its slot.
+     */
+    @Test public void recordIdsSurviveCompaction() throws Exception {
+        SlottedPage page = new SlottedPage(pid,
+                SlottedPage.createEmptyPageData(BufferPool.PAGE_SIZE));
+        int n = 0;
+        try {
+            while (true) {
+                page.insertTuple(tuple(n, "abc"));
+                n++;
+            }
+        } catch (DbException e) {
+            // full
+        }
+        HashMap<Integer, Tuple> before = bySlot(page);
+        for (int i = 0; i < n; i += 2)
+            page.deleteTuple(before.get(i));
+
+        String longer = "abcdefghijkl";
+        Tuple added = tuple(-1, longer);
+        page.insertTuple(added);
+        assertEquals(0, added.getRecordId().tupleno());
+
+        HashMap<Integer, Tuple> after = bySlot(page);
+        for (int i = 1; i < n; i += 2)
+            assertTrue(TestUtil.compareTuples(before.get(i), after.get(i)));
+        assertTrue(TestUtil.compareTuples(added, after.get(0)));
+        assertFalse(page.isSlotUsed(2));
+    }
+
+    /**
+     * A SlottedHeapFile works through the BufferPool and SeqScan like a
+     * HeapFile.
+     */
+    @Test public void slottedHeapFileScan() throws Exception {
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        SlottedHeapFile sf = new SlottedHeapFile(f, td);
+        Database.getCatalog().addTable(sf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++)
+            Database.getBufferPool().insertTuple(tid, sf.getId(), tuple(i, "t" + i));
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(sf.numPages() < 10);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, sf.getId(), "s");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals("t" + ((IntField)t.getField(0)).getValue(),
+                    ((StringField)t.getField(1)).getValue());
+            count++;
+        }
+        scan.close();
+        assertEquals(1000, count);
+        Database.getBufferPool().transactionComplete(tid);
+        sf.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
@@ -0,0 +1,165 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Vector;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  private HeapFile f1;
+  private HeapFile f2;
+  private ArrayList<ArrayList<Integer>> left;
+  private ArrayList<ArrayList<Integer>> right;
+
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    left = new ArrayList<ArrayList<Integer>>();
+    right = new ArrayList<ArrayList<Integer>>();
+    f1 = SystemTestUtil.createRandomHeapFile(2, 120, 60, null, left);
+    f2 = SystemTestUtil.createRandomHeapFile(2, 100, 60, null, right);
+  }
+
+  /**
+   * Every join operator but LIKE returns each matching pair, in ascending
+   * order of the left join field, with or without reused tuples.
+   */
+  @Test public void joinInKeyOrder() throws Exception {
+    TransactionId tid = new TransactionId();
+    for (boolean reuse : new boolean[] { false, true }) {
+      Tuple.setReuseEnabled(reuse);
+      try {
+        for (Predicate.Op op : Predicate.Op.values()) {
+          if (op == Predicate.Op.LIKE)
+            continue;
+          JoinPredicate pred = new JoinPredicate(1, op, 0);
+          SortMergeJoin join = new SortMergeJoin(pred,
+              new SeqScan(tid, f1.getId(), "l"), new SeqScan(tid, f2.getId(), "r"));
+          assertTrue(join.isSortedOn(1));
+          assertEquals(op == Predicate.Op.EQUALS, join.isSortedOn(2));
+
+          join.open();
+          int last = Integer.MIN_VALUE;
+          while (join.hasNext()) {
+            int v = ((IntField)join.next().getField(1)).getValue();
+            assertTrue(v >= last);
+            last = v;
+          }
+          join.close();
+          SystemTestUtil.matchTuples(join, SystemTestUtil.joinTuples(left, right, pred));
+        }
+      } finally {
+        Tuple.setReuseEnabled(false);
+      }
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Inputs already sorted on their join fields are not sorted again, and
+   * rewinding the join returns the same tuples.
+   */
+  @Test public void sortedInputs() throws Exception {
+    TransactionId tid = new TransactionId();
+    OrderBy sorted1 = new OrderBy(1, true, new SeqScan(tid, f1.getId(), "l"));
+    OrderBy sorted2 = new OrderBy(0, true, new SeqScan(tid, f2.getId(), "r"));
+    SortMergeJoin join = new SortMergeJoin(
+        new JoinPredicate(1, Predicate.Op.EQUALS, 0), sorted1, sorted2);
+    assertSame(sorted1, join.getChildren()[0]);
+    assertSame(sorted2, join.getChildren()[1]);
+
+    SortMergeJoin unsorted = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        sorted1, sorted2);
+    assertNotSame(sorted1, unsorted.getChildren()[0]);
+    assertTrue(SortMergeJoin.isSortedOn(unsorted.getChildren()[0], 0));
+
+    ArrayList<ArrayList<Integer>> expected = SystemTestUtil.joinTuples(left, right,
+        join.getJoinPredicate());
+    join.open();
+    while (join.hasNext())
+      join.next();
+    join.rewind();
+    int n = 0;
+    while (join.hasNext()) {
+      join.next();
+      n++;
+    }
+    join.close();
+    assertEquals(expected.size(), n);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * The optimizer uses a sort-merge join when the output must be ordered or
+   * both inputs are already sorted, and a sorted join output needs no
+   * OrderBy on its key.
+   */
+  @Test public void optimizerUsesOrder() throws Exception {
+    DbIterator a = new TupleIterator(Utility.getTupleDesc(2, "a"), new ArrayList<Tuple>());
+    DbIterator b = new TupleIterator(Utility.getTupleDesc(2, "b"), new ArrayList<Tuple>());
+    LogicalJoinNode lj = new LogicalJoinNode("a", "b", "a.a1", "b.b0", Predicate.Op.EQUALS);
+    lj.f1QuantifiedName = "a1";
+    lj.f2QuantifiedName = "b0";
+
+    assertTrue(JoinOptimizer.instantiateJoin(lj, a, b, 10, 20) instanceof HashJoin);
+    DbIterator j = JoinOptimizer.instantiateJoin(lj, a, b, 10, 20, true);
+    assertTrue(j instanceof SortMergeJoin);
+    assertTrue(SortMergeJoin.isSortedOn(j, 1));
+    assertTrue(SortMergeJoin.isSortedOn(new Filter(
+        new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(3)), j), 2));
+    assertFalse(SortMergeJoin.isSortedOn(j, 0));
+
+    DbIterator sa = new OrderBy(1, true, a);
+    DbIterator sb = new OrderBy(0, true, b);
+    lj.p = Predicate.Op.LESS_THAN;
+    assertTrue(JoinOptimizer.instantiateJoin(lj, sa, sb, 10, 20) instanceof SortMergeJoin);
+    assertFalse(JoinOptimizer.instantiateJoin(lj, sa, b, 10, 20) instanceof SortMergeJoin);
+  }
+
+  /**
+   * Ordered output is only produced with a sort-merge join when sorting the
+   * inputs costs less than sorting the output of the usual join, and the
+   * inputs to sort fit in the join memory budget.
+   */
+  @Test public void sortMergeCostedForOrder() throws Exception {
+    DbIterator a = new TupleIterator(Utility.getTupleDesc(2, "a"), new ArrayList<Tuple>());
+    DbIterator b = new TupleIterator(Utility.getTupleDesc(2, "b"), new ArrayList<Tuple>());
+    LogicalJoinNode lj = new LogicalJoinNode("a", "b", "a.a1", "b.b0", Predicate.Op.EQUALS);
+    lj.f1QuantifiedName = "a1";
+    lj.f2QuantifiedName = "b0";
+    JoinOptimizer jo = new JoinOptimizer(null, new Vector<LogicalJoinNode>());
+
+    assertTrue(jo.sortMergeForOrder(lj, a, b, 100, 100, 10000));
+    assertFalse(jo.sortMergeForOrder(lj, a, b, 100000, 100000, 10));
+    assertFalse(jo.sortMergeForOrder(lj, a, b, 100, -1, 10000));
+    DbIterator sa = new OrderBy(1, true, a);
+    DbIterator sb = new OrderBy(0, true, b);
+    assertTrue(jo.sortMergeForOrder(lj, sa, sb, 100000, 100000, 10));
+
+    long old = GraceHashJoin.getMemoryBudget();
+    try {
+      GraceHashJoin.setMemoryBudget(1000 * 120);
+      int fits = GraceHashJoin.budgetTuples(a.getTupleDesc());
+      assertTrue(jo.sortMergeForOrder(lj, a, b, fits, fits, fits * fits));
+      assertFalse(jo.sortMergeForOrder(lj, a, b, fits + 1, fits, fits * fits));
+      assertTrue(jo.sortMergeForOrder(lj, sa, b, fits + 1, fits, fits * fits));
+    } finally {
+      GraceHashJoin.setMemoryBudget(old);
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
@@ -0,0 +1,150 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TupleReuseTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(3, 2000, 100, null, tuples);
+        Tuple.setReuseEnabled(true);
+    }
+
+    @After public void tearDown() {
+        Tuple.setReuseEnabled(false);
+    }
+
+    /**
+     * A copy keeps its values when the tuple it was copied from is moved to
+     * the next row.
+     */
+    @Test public void copySurvivesReuse() throws Exception {
+        DbIterator scan = new SeqScan(new TransactionId(), hf.getId(), "");
+        scan.open();
+        Tuple first = scan.next();
+        Tuple copy = first.copy();
+        ArrayList<Integer> values = SystemTestUtil.tupleToList(first);
+        RecordId rid = first.getRecordId();
+        Tuple second = scan.next();
+        assertSame(first, second);
+        assertEquals(values, SystemTestUtil.tupleToList(copy));
+        assertEquals(rid, copy.getRecordId());
+        scan.close();
+    }
+
+    /**
+     * Filter, Project, Join and OrderBy return the same rows with reused
+     * tuples as without.
+     */
+    @Test public void operatorsMatch() throws Exception {
+        TransactionId tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) < 50) {
+                ArrayList<Integer> row = new ArrayList<Integer>();
+                row.add(t.get(2));
+                row.add(t.get(0));
+                expected.add(row);
+            }
+        }
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        fields.add(2);
+        fields.add(0);
+        Type[] types = { Type.INT_TYPE, Type.INT_TYPE };
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50)),
+                new SeqScan(tid, hf.getId(), ""));
+        SystemTestUtil.matchTuples(new Project(fields, types, filter), expected);
+
+        ArrayList<ArrayList<Integer>> small = new ArrayList<ArrayList<Integer>>();
+        HeapFile other = SystemTestUtil.createRandomHeapFile(1, 20, 100, null, small);
+        ArrayList<ArrayList<Integer>> joined = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> s : small) {
+            for (ArrayList<Integer> t : tuples) {
+                if (s.get(0).equals(t.get(1))) {
+                    ArrayList<Integer> row = new ArrayList<Integer>(s);
+                    row.addAll(t);
+                    joined.add(row);
+                }
+            }
+        }
+        Join join = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                new SeqScan(tid, other.getId(), "s"), new SeqScan(tid, hf.getId(), "t"));
+        SystemTestUtil.matchTuples(join, joined);
+
+        OrderBy sort = new OrderBy(1, true, new SeqScan(tid, hf.getId(), ""));
+        sort.open();
+        int last = Integer.MIN_VALUE;
+        int n = 0;
+        while (sort.hasNext()) {
+            int v = ((IntField)sort.next().getField(1)).getValue();
+            assertTrue(v >= last);
+            last = v;
+            n++;
+        }
+        sort.close();
+        assertEquals(tuples.size(), n);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** @return the bytes allocated by a scan and filter over hf's resident pages */
+    private long scanAllocation(com.sun.management.ThreadMXBean bean) throws Exception {
+        long thread = Thread.currentThread().getId();
+        TransactionId tid = new TransactionId();
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50)),
+                new SeqScan(tid, hf.getId(), ""));
+        long before = bean.getThreadAllocatedBytes(thread);
+        filter.open();
+        long sum = 0;
+        while (filter.hasNext())
+            sum += ((IntField)filter.next().getField(2)).getValue();
+        filter.close();
+        long allocated = bean.getThreadAllocatedBytes(thread) - before;
+        assertTrue(sum >= 0);
+        Database.getBufferPool().transactionComplete(tid);
+        return allocated;
+    }
+
+    /**
+     * With reused tuples, a scan over resident pages allocates a small
+     * fraction of what it allocates with a new tuple per row.
+     */
+    @Test public void scanAllocatesPerPageOnly() throws Exception {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean()
+                instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean.isThreadAllocatedMemorySupported()
+                && bean.isThreadAllocatedMemoryEnabled());
+
+        scanAllocation(bean); // reads the pages in
+        long reused = scanAllocation(bean);
+        Tuple.setReuseEnabled(false);
+        long fresh = scanAllocation(bean);
+        assertTrue("reused " + reused + " bytes, fresh " + fresh, reused * 10 < fresh);
+        assertTrue("reused " + reused + " bytes", reused < 4 * tuples.size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TupleReuseTest.class);
+    }
+}
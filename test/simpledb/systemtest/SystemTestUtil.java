@@ -94,6 +94,27 @@ public class SystemTestUtil {
         return list;
     }
 
+    /**
+     * Returns the tuples a join of two lists of tuples should produce: each
+     * left tuple followed by each right tuple that matches it, found with a
+     * nested loop.
+     */
+    public static ArrayList<ArrayList<Integer>> joinTuples(List<ArrayList<Integer>> left,
+            List<ArrayList<Integer>> right, JoinPredicate pred) {
+        ArrayList<ArrayList<Integer>> joined = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> l : left) {
+            IntField key = new IntField(l.get(pred.getField1()));
+            for (ArrayList<Integer> r : right) {
+                if (key.compare(pred.getOperator(), new IntField(r.get(pred.getField2())))) {
+                    ArrayList<Integer> row = new ArrayList<Integer>(l);
+                    row.addAll(r);
+                    joined.add(row);
+                }
+            }
+        }
+        return joined;
+    }
+
     public static void matchTuples(DbFile f, List<ArrayList<Integer>> tuples)
             throws DbException, TransactionAbortedException, IOException {
         TransactionId tid = new TransactionId();